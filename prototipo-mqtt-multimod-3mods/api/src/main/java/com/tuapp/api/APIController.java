@@ -1,12 +1,19 @@
 package com.tuapp.api;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -15,26 +22,41 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.tuapp.api.dto.AgregadoDTO;
 import com.tuapp.api.dto.EnergiaDTO; // Importar MongoReading
 import com.tuapp.api.dto.HumedadDTO; // Importar RawEntry
 import com.tuapp.api.dto.Room;
 import com.tuapp.api.dto.Sensor;
 import com.tuapp.api.dto.Switch;
 import com.tuapp.api.dto.TemperaturaDTO;
+import com.tuapp.api.mongo.EnergyService;
 import com.tuapp.api.mongo.MongoReading;
 import com.tuapp.api.mongo.MongoReading.RawEntry;
-import com.tuapp.api.mongo.MongoRepo;
+import com.tuapp.api.mongo.ReadingService;
+import com.tuapp.api.series.TimeBuckets;
 
 @RestController
 @RequestMapping("/api")
 public class APIController {
     
-    private final MongoRepo readingRepo;
+    private static final String NDJSON = "application/x-ndjson";
+    // Tope de puntos (maxPoints) y de ventanas (bucket) por respuesta
+    private static final int MAX_POINTS = 100_000;
+
+    private final ReadingService readings;
+    private final EnergyService energy;
+    private final ObjectMapper json;
 
-    public APIController(MongoRepo readingRepo) {
-        this.readingRepo = readingRepo;
+    public APIController(ReadingService readings, EnergyService energy, ObjectMapper json) {
+        this.readings = readings;
+        this.energy = energy;
+        this.json = json;
     }
 
     // QUEDA PARA ARMAR A FUTURO
@@ -62,23 +84,25 @@ public class APIController {
     @GetMapping("/rooms/{roomId}/sensors/{sensorId}/temperature/latest")
     public TemperaturaDTO getLatestTemperature(
         @PathVariable String roomId,
-        @PathVariable String sensorId) {
+        @PathVariable String sensorId,
+        ServletWebRequest request) {
 
     // Por ahora no usamos para nada el sensorId, pero lo dejamos en la ruta para la proxima iteracion.
     String topic = "sensors/" + roomId + "/temperature";
     
-    Optional<MongoReading> readingOpt = readingRepo.findByTopic(topic);
+    Optional<RawEntry> latestOpt = readings.latest(topic);
     
-    if (readingOpt.isEmpty() || readingOpt.get().getRaws().isEmpty()) {
+    if (latestOpt.isEmpty()) {
         throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No data found for sensor " + sensorId + " in room " + roomId);
     }
 
-    // Obtener la última lectura (último elemento de la lista raws)
-    MongoReading reading = readingOpt.get();
-    RawEntry latestRaw = reading.getRaws().get(reading.getRaws().size() - 1);
+    // Obtener la última lectura (último elemento de raws, o del bucket más reciente)
+    RawEntry latestRaw = latestOpt.get();
+    // 304 si el cliente ya tiene esta lectura (ETag/Last-Modified de la propia lectura)
+    if (notModified(request, latestRaw)) return null;
     
-    if (latestRaw.getPayload().containsKey("temperature")) {
-        Double temp = ((Number) latestRaw.getPayload().get("temperature")).doubleValue();
+    if (latestRaw.number("temperature") != null) {
+        Double temp = latestRaw.number("temperature");
         
         return new TemperaturaDTO(
             temp, 
@@ -97,32 +121,25 @@ public class APIController {
     @GetMapping("/rooms/{roomId}/sensors/{sensorId}/humidity/latest")
 public HumedadDTO getLatestHumidity(
         @PathVariable String roomId,
-        @PathVariable String sensorId) {
+        @PathVariable String sensorId,
+        ServletWebRequest request) {
             
     String topic = "sensors/" + roomId + "/humidity"; 
-    Optional<MongoReading> readingOpt = readingRepo.findByTopic(topic);
+    Optional<RawEntry> latestOpt = readings.latest(topic);
     
-    if (readingOpt.isEmpty() || readingOpt.get().getRaws().isEmpty()) {
+    if (latestOpt.isEmpty()) {
         throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No data found for sensor " + sensorId + " in room " + roomId);
     }
 
-    MongoReading reading = readingOpt.get();
-    RawEntry latestRaw = reading.getRaws().get(reading.getRaws().size() - 1);
+    RawEntry latestRaw = latestOpt.get();
+    // 304 si el cliente ya tiene esta lectura (ETag/Last-Modified de la propia lectura)
+    if (notModified(request, latestRaw)) return null;
     
     if (latestRaw.getPayload() != null && latestRaw.getPayload().containsKey("humidity")) {
-        Object humValue = latestRaw.getPayload().get("humidity");
-        Double hum;
-        if (humValue instanceof String string) {
-            try {
-                hum = Double.valueOf(string);
-            } catch (NumberFormatException e) {
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Humidity value is not a valid number.");
-            }
-        } else {
-             if (humValue == null) {
-                 throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Humidity value is null.");
-             }
-             hum = ((Number) humValue).doubleValue();
+        // Ya viene tipada desde el consumer (los documentos viejos con String se convierten en number())
+        Double hum = latestRaw.number("humidity");
+        if (hum == null) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Humidity value is not a valid number.");
         }
         
         return new HumedadDTO(
@@ -144,14 +161,11 @@ public HumedadDTO getLatestHumidity(
         @PathVariable String roomId,
         @PathVariable String sensorId,
         @RequestParam String fechaInicio,
-        @RequestParam String fechaFin) {
+        @RequestParam String fechaFin,
+        @RequestParam(required = false) Integer maxPoints,
+        ServletWebRequest request) {
 
     String topic = "sensors/" + roomId + "/temperature"; 
-    Optional<MongoReading> readingOpt = readingRepo.findByTopic(topic);
-    
-    if (readingOpt.isEmpty() || readingOpt.get().getRaws().isEmpty()) {
-        return List.of(); // Devuelve lista vacía si no hay datos
-    }
 
     long startTs;
     long endTs;
@@ -162,12 +176,16 @@ public HumedadDTO getLatestHumidity(
         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid date format. Use ISO 8601 (e.g., 2025-09-01T00:00:00Z)");
     }
     
-    return readingOpt.get().getRaws().stream()
-        .filter(raw -> raw.getTs() >= startTs && raw.getTs() <= endTs)
+    if (notModified(request, topic, "json")) return null;
+
+    // Solo las lecturas dentro de [startTs, endTs], filtradas en Mongo (lista vacía si no hay datos);
+    // con maxPoints, reducidas con LTTB
+    return points(topic, "temperature", startTs, endTs, maxPoints).stream()
         // **CORRECCIÓN**: Usar "temperature" en lugar de "temp".
-        .filter(raw -> raw.getPayload().containsKey("temperature")) 
+        // Sin valor numérico (documentos viejos con string no numérico): la lectura se saltea
+        .filter(raw -> raw.number("temperature") != null)
         .map(raw -> {
-            Double temp = ((Number) raw.getPayload().get("temperature")).doubleValue();
+            Double temp = raw.number("temperature");
             return new TemperaturaDTO(
                 temp, 
                 "°C", 
@@ -186,14 +204,11 @@ public List<HumedadDTO> getHumiditySequence(
         @PathVariable String roomId,
         @PathVariable String sensorId,
         @RequestParam String fechaInicio,
-        @RequestParam String fechaFin) {
+        @RequestParam String fechaFin,
+        @RequestParam(required = false) Integer maxPoints,
+        ServletWebRequest request) {
 
     String topic = "sensors/" + roomId + "/humidity";
-    Optional<MongoReading> readingOpt = readingRepo.findByTopic(topic);
-    
-    if (readingOpt.isEmpty() || readingOpt.get().getRaws().isEmpty()) {
-        return List.of(); // Devuelve lista vacía si no hay datos
-    }
 
     long startTs;
     long endTs;
@@ -204,25 +219,18 @@ public List<HumedadDTO> getHumiditySequence(
         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid date format. Use ISO 8601 (e.g., 2025-09-01T00:00:00Z)");
     }
     
-    return readingOpt.get().getRaws().stream()
-        .filter(raw -> raw.getTs() >= startTs && raw.getTs() <= endTs)
+    if (notModified(request, topic, "json")) return null;
+
+    // Solo las lecturas dentro de [startTs, endTs], filtradas en Mongo (lista vacía si no hay datos);
+    // con maxPoints, reducidas con LTTB
+    return points(topic, "humidity", startTs, endTs, maxPoints).stream()
         // **CORRECCIÓN**: Usar "humidity" en lugar de "hum".
         .filter(raw -> raw.getPayload().containsKey("humidity")) 
         .map(raw -> {
-            Object humValue = raw.getPayload().get("humidity");
-            Double hum;
-            try {
-                 if (humValue instanceof String string) {
-                    hum = Double.valueOf(string);
-                } else {
-                     if (humValue == null) {
-                         throw new IllegalArgumentException("Humidity value is null.");
-                     }
-                     hum = ((Number) humValue).doubleValue();
-                }
-            } catch (IllegalArgumentException e) {
-                // Manejar error en la conversión dentro del stream, puede ser loguear y usar 0.0
-                System.err.println("WARN: Error parsing humidity value in sequence: " + e.getMessage());
+            Double hum = raw.number("humidity");
+            if (hum == null) {
+                // Valor no numérico (solo posible en documentos viejos): se loguea y se usa 0.0
+                System.err.println("WARN: Error parsing humidity value in sequence for topic " + topic);
                 hum = 0.0;
             }
 
@@ -235,6 +243,212 @@ public List<HumedadDTO> getHumiditySequence(
         .collect(Collectors.toList());
     }
 
+    /**
+     * Secuencias agregadas por ventana de tiempo (avg/min/max/count), p. ej. bucket=5m, 1h, 1d.
+     * curl -u "IoTEste:1234" -X GET "http://localhost:8080/api/rooms/room1/sensors/1/temperature/sequence?fechaInicio=2025-01-01T00:00:00Z&fechaFin=2025-01-08T00:00:00Z&bucket=1h"
+     */
+    @GetMapping(value = "/rooms/{roomId}/sensors/{sensorId}/temperature/sequence", params = "bucket")
+    public List<AgregadoDTO> getTemperatureAggregates(
+        @PathVariable String roomId,
+        @PathVariable String sensorId,
+        @RequestParam String fechaInicio,
+        @RequestParam String fechaFin,
+        @RequestParam String bucket,
+        ServletWebRequest request) {
+        return aggregates("sensors/" + roomId + "/temperature", "temperature", "°C", fechaInicio, fechaFin, bucket, request);
+    }
+
+    @GetMapping(value = "/rooms/{roomId}/sensors/{sensorId}/humidity/sequence", params = "bucket")
+    public List<AgregadoDTO> getHumidityAggregates(
+        @PathVariable String roomId,
+        @PathVariable String sensorId,
+        @RequestParam String fechaInicio,
+        @RequestParam String fechaFin,
+        @RequestParam String bucket,
+        ServletWebRequest request) {
+        return aggregates("sensors/" + roomId + "/humidity", "humidity", "%", fechaInicio, fechaFin, bucket, request);
+    }
+
+    /** Lecturas del rango (todas o reducidas con LTTB a maxPoints). */
+    private List<RawEntry> points(String topic, String field, long startTs, long endTs, Integer maxPoints) {
+        if (maxPoints == null) return readings.range(topic, field, startTs, endTs);
+        if (maxPoints < 3 || maxPoints > MAX_POINTS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "maxPoints must be between 3 and " + MAX_POINTS);
+        }
+        return readings.downsample(topic, field, startTs, endTs, maxPoints);
+    }
+
+    private List<AgregadoDTO> aggregates(String topic, String field, String unit,
+                                         String fechaInicio, String fechaFin, String bucket, ServletWebRequest request) {
+        long[] range = parseRange(fechaInicio, fechaFin);
+        long spanMs;
+        try {
+            spanMs = TimeBuckets.parseSpan(bucket);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid bucket. Use e.g. 30s, 5m, 1h, 1d");
+        }
+        // La respuesta queda acotada por lo que el cliente puede dibujar, no por lo que hay guardado
+        if ((range[1] - range[0]) / spanMs + 1 > MAX_POINTS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Too many buckets for the range (max " + MAX_POINTS + ")");
+        }
+        if (notModified(request, topic, "json")) return null;
+        return readings.aggregate(topic, field, range[0], range[1], spanMs).stream()
+            .map(b -> new AgregadoDTO(Instant.ofEpochMilli(b.start()), Instant.ofEpochMilli(b.end()),
+                b.avg(), b.min(), b.max(), b.count(), unit))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * GET condicional de secuencias: el ETag sale de lastTs + count del topic (cambian con cada escritura) y
+     * Last-Modified de receivedAt de la cabecera (hora del servidor: no retrocede con una lectura tardía ni depende
+     * del reloj del dispositivo). Todo se lee con una consulta cubierta por índice. true (y 304) si el cliente ya tiene
+     * esa versión.
+     * 'variant' distingue representaciones de la misma URL (JSON / NDJSON).
+     */
+    private boolean notModified(ServletWebRequest request, String topic, String variant) {
+        Optional<MongoReading> version = readings.version(topic);
+        if (version.isEmpty()) return false;
+        MongoReading v = version.get();
+        return checkNotModified(request, "W/\"" + variant + "-" + v.getLastTs() + "-" + v.getCount() + "\"",
+                v.getReceivedAt());
+    }
+
+    /**
+     * GET condicional de "latest": la versión es la propia lectura servida (caché MQTT o cabecera), sin otra consulta.
+     * Last-Modified es su receivedAt, no el ts que reporta el dispositivo.
+     */
+    private static boolean notModified(ServletWebRequest request, RawEntry latest) {
+        return checkNotModified(request, "W/\"" + latest.getTs() + "-" + latest.getReceivedAt() + "\"",
+                latest.getReceivedAt());
+    }
+
+    private static boolean checkNotModified(ServletWebRequest request, String etag, long lastModified) {
+        // Se puede guardar pero hay que revalidar siempre (si no, Spring Security pone no-store y nadie manda If-None-Match)
+        request.getResponse().setHeader("Cache-Control", "private, no-cache");
+        return request.checkNotModified(etag, lastModified);
+    }
+
+    private static long[] parseRange(String fechaInicio, String fechaFin) {
+        try {
+            return new long[] { Instant.parse(fechaInicio).toEpochMilli(), Instant.parse(fechaFin).toEpochMilli() };
+        } catch (Exception e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid date format. Use ISO 8601 (e.g., 2025-09-01T00:00:00Z)");
+        }
+    }
+
+    /**
+     * Secuencias en streaming (NDJSON, una lectura por línea) a medida que salen del cursor de Mongo;
+     * la memoria no crece con el rango. Se pide con Accept: application/x-ndjson o con stream=true.
+     * Devuelve todas las lecturas del rango: maxPoints y bucket no se combinan con streaming (400).
+     * curl -u "IoTEste:1234" -H "Accept: application/x-ndjson" "http://localhost:8080/api/rooms/room1/sensors/1/temperature/sequence?fechaInicio=2025-01-01T00:00:00Z&fechaFin=2025-01-02T00:00:00Z"
+     */
+    @GetMapping(value = "/rooms/{roomId}/sensors/{sensorId}/temperature/sequence", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamTemperatureSequence(
+        @PathVariable String roomId,
+        @PathVariable String sensorId,
+        @RequestParam String fechaInicio,
+        @RequestParam String fechaFin,
+        @RequestParam(required = false) Integer maxPoints,
+        @RequestParam(required = false) String bucket,
+        ServletWebRequest request) {
+        rejectStreamingOptions(maxPoints, bucket);
+        return ndjson("sensors/" + roomId + "/temperature", "temperature", fechaInicio, fechaFin, request,
+            raw -> {
+                Double temp = raw.number("temperature");
+                return temp == null ? null : new TemperaturaDTO(temp, "°C", Instant.ofEpochMilli(raw.getTs()));
+            });
+    }
+
+    @GetMapping(value = "/rooms/{roomId}/sensors/{sensorId}/temperature/sequence", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamTemperatureSequenceParam(
+        @PathVariable String roomId,
+        @PathVariable String sensorId,
+        @RequestParam String fechaInicio,
+        @RequestParam String fechaFin,
+        @RequestParam(required = false) Integer maxPoints,
+        @RequestParam(required = false) String bucket,
+        ServletWebRequest request) {
+        return streamTemperatureSequence(roomId, sensorId, fechaInicio, fechaFin, maxPoints, bucket, request);
+    }
+
+    @GetMapping(value = "/rooms/{roomId}/sensors/{sensorId}/humidity/sequence", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamHumiditySequence(
+        @PathVariable String roomId,
+        @PathVariable String sensorId,
+        @RequestParam String fechaInicio,
+        @RequestParam String fechaFin,
+        @RequestParam(required = false) Integer maxPoints,
+        @RequestParam(required = false) String bucket,
+        ServletWebRequest request) {
+        rejectStreamingOptions(maxPoints, bucket);
+        return ndjson("sensors/" + roomId + "/humidity", "humidity", fechaInicio, fechaFin, request, raw -> {
+            Double hum = raw.number("humidity");
+            return new HumedadDTO(hum == null ? 0.0 : hum, "%", Instant.ofEpochMilli(raw.getTs()));
+        });
+    }
+
+    @GetMapping(value = "/rooms/{roomId}/sensors/{sensorId}/humidity/sequence", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamHumiditySequenceParam(
+        @PathVariable String roomId,
+        @PathVariable String sensorId,
+        @RequestParam String fechaInicio,
+        @RequestParam String fechaFin,
+        @RequestParam(required = false) Integer maxPoints,
+        @RequestParam(required = false) String bucket,
+        ServletWebRequest request) {
+        return streamHumiditySequence(roomId, sensorId, fechaInicio, fechaFin, maxPoints, bucket, request);
+    }
+
+    // Accept NDJSON + bucket: sin este mapeo gana el de agregados (params más específicos) y su List no se puede
+    // escribir como NDJSON (406)
+    @GetMapping(value = {"/rooms/{roomId}/sensors/{sensorId}/temperature/sequence",
+                         "/rooms/{roomId}/sensors/{sensorId}/humidity/sequence"},
+                params = "bucket", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamAggregates(@RequestParam String bucket) {
+        rejectStreamingOptions(null, bucket);
+        return null;
+    }
+
+    private static void rejectStreamingOptions(Integer maxPoints, String bucket) {
+        if (maxPoints != null || bucket != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "maxPoints and bucket are not supported with streaming (NDJSON / stream=true)");
+        }
+    }
+
+    /**
+     * Valida las fechas antes de empezar a responder y después escribe una línea JSON por lectura que tenga 'field'.
+     * Si toDto devuelve null la lectura se saltea.
+     */
+    private ResponseEntity<StreamingResponseBody> ndjson(String topic, String field, String fechaInicio, String fechaFin,
+                                                         ServletWebRequest request, Function<RawEntry, Object> toDto) {
+        long[] range = parseRange(fechaInicio, fechaFin);
+        if (notModified(request, topic, "ndjson")) return null;
+        long startTs = range[0];
+        long endTs = range[1];
+        StreamingResponseBody body = out -> {
+            OutputStream buffered = new BufferedOutputStream(out, 8192);
+            try {
+                readings.forEachInRange(topic, field, startTs, endTs, raw -> {
+                    if (!raw.getPayload().containsKey(field)) return;
+                    Object dto = toDto.apply(raw);
+                    if (dto == null) return;
+                    try {
+                        buffered.write(json.writeValueAsBytes(dto));
+                        buffered.write('\n');
+                    } catch (IOException e) {
+                        // Cliente desconectado: corta la iteración (y cierra el cursor)
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            buffered.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
     // --------------------------------------------------------------------------
     // ---- SWITCHES ----
 
@@ -245,21 +459,23 @@ public List<HumedadDTO> getHumiditySequence(
 @GetMapping("/rooms/{roomId}/switches/{switchId}/energy/currentpowerusage")
 public EnergiaDTO getCurrentPowerUsage(
         @PathVariable String roomId,
-        @PathVariable String switchId) {
+        @PathVariable String switchId,
+        ServletWebRequest request) {
             
     String topic = "switches/" + roomId + "/power"; 
     
-    Optional<MongoReading> readingOpt = readingRepo.findByTopic(topic);
+    Optional<RawEntry> latestOpt = readings.latest(topic);
     
-    if (readingOpt.isEmpty() || readingOpt.get().getRaws().isEmpty()) {
+    if (latestOpt.isEmpty()) {
         throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No data found for switch " + switchId + " in room " + roomId);
     }
 
-    MongoReading reading = readingOpt.get();
-    RawEntry latestRaw = reading.getRaws().get(reading.getRaws().size() - 1);
+    RawEntry latestRaw = latestOpt.get();
+    // 304 si el cliente ya tiene esta lectura (ETag/Last-Modified de la propia lectura)
+    if (notModified(request, latestRaw)) return null;
 
-    if (latestRaw.getPayload().containsKey("power")) {
-        Double power = ((Number) latestRaw.getPayload().get("power")).doubleValue();
+    if (latestRaw.number("power") != null) {
+        Double power = latestRaw.number("power");
 
         String unit = "W";
         
@@ -277,6 +493,64 @@ public EnergiaDTO getCurrentPowerUsage(
     }
 }
     
+    /**
+     * cURL Test: Consultar secuencia de potencia (W); admite maxPoints (LTTB) y bucket (avg/min/max)
+     * curl -u "IoTEste:1234" -X GET "http://localhost:8080/api/rooms/room1/switches/1/energy/powersequence?fechaInicio=2025-01-01T00:00:00Z&fechaFin=2025-01-02T00:00:00Z&maxPoints=500"
+     */
+    @GetMapping("/rooms/{roomId}/switches/{switchId}/energy/powersequence")
+    public List<EnergiaDTO> getPowerSequence(
+        @PathVariable String roomId,
+        @PathVariable String switchId,
+        @RequestParam String fechaInicio,
+        @RequestParam String fechaFin,
+        @RequestParam(required = false) Integer maxPoints,
+        ServletWebRequest request) {
+        long[] range = parseRange(fechaInicio, fechaFin);
+        if (notModified(request, "switches/" + roomId + "/power", "json")) return null;
+        return points("switches/" + roomId + "/power", "power", range[0], range[1], maxPoints).stream()
+            .filter(raw -> raw.number("power") != null)
+            .map(raw -> new EnergiaDTO(raw.number("power"), "W", Instant.ofEpochMilli(raw.getTs())))
+            .collect(Collectors.toList());
+    }
+
+    @GetMapping(value = "/rooms/{roomId}/switches/{switchId}/energy/powersequence", params = "bucket")
+    public List<AgregadoDTO> getPowerAggregates(
+        @PathVariable String roomId,
+        @PathVariable String switchId,
+        @RequestParam String fechaInicio,
+        @RequestParam String fechaFin,
+        @RequestParam String bucket,
+        ServletWebRequest request) {
+        return aggregates("switches/" + roomId + "/power", "power", "W", fechaInicio, fechaFin, bucket, request);
+    }
+
+    /**
+     * cURL Test: Consultar consumo (kWh) en un rango; sin fechas, desde la primera lectura hasta ahora.
+     * Sale de la serie de energía acumulada (dos lecturas y una resta, no importa el largo del rango).
+     * curl -u "IoTEste:1234" -X GET "http://localhost:8080/api/rooms/room1/switches/1/energy/consumption?fechaInicio=2025-01-01T00:00:00Z&fechaFin=2025-02-01T00:00:00Z"
+     */
+    @GetMapping("/rooms/{roomId}/switches/{switchId}/energy/consumption")
+    public EnergiaDTO getConsumption(
+        @PathVariable String roomId,
+        @PathVariable String switchId,
+        @RequestParam(required = false) String fechaInicio,
+        @RequestParam(required = false) String fechaFin) {
+        long startTs;
+        long endTs;
+        try {
+            startTs = fechaInicio == null ? 0L : Instant.parse(fechaInicio).toEpochMilli();
+            endTs = fechaFin == null ? System.currentTimeMillis() : Instant.parse(fechaFin).toEpochMilli();
+        } catch (Exception e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid date format. Use ISO 8601 (e.g., 2025-09-01T00:00:00Z)");
+        }
+        if (startTs > endTs) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "fechaInicio must be before fechaFin");
+        }
+        Double kWh = energy.consumptionKWh("switches/" + roomId, startTs, endTs)
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "No energy data found for switch " + switchId + " in room " + roomId));
+        return new EnergiaDTO(kWh, "kWh", Instant.ofEpochMilli(endTs));
+    }
+
     /**
      * cURL Test
      * curl -u "IoTEste:1234" -X GET "http://localhost:8080/api/testing"
@@ -0,0 +1,66 @@
+package com.tuapp.api;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.tuapp.api.live.LiveHub;
+
+/**
+ * Actualizaciones en vivo por Server-Sent Events (evento "reading" con topic, ts, receivedAt y payload),
+ * en lugar de hacer polling a los endpoints "latest". Al conectarse se reciben los últimos valores conocidos.
+ */
+@RestController
+@RequestMapping("/api")
+public class LiveController {
+
+    private static final int MAX_FILTERS = 16;
+
+    private final LiveHub hub;
+
+    public LiveController(LiveHub hub) {
+        this.hub = hub;
+    }
+
+    /**
+     * cURL Test: todo lo de una habitación
+     * curl -N -u "IoTEste:1234" "http://localhost:8080/api/rooms/room1/live"
+     */
+    @GetMapping(value = "/rooms/{roomId}/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter liveRoom(@PathVariable String roomId) {
+        if (roomId.contains("+") || roomId.contains("#") || roomId.contains("/")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid roomId");
+        }
+        return subscribe(List.of("sensors/" + roomId + "/+", "switches/" + roomId + "/+"));
+    }
+
+    /**
+     * cURL Test: filtros de topic MQTT separados por coma (+ y # como comodines)
+     * curl -N -u "IoTEste:1234" "http://localhost:8080/api/live?topics=sensors/%2B/temperature"
+     */
+    @GetMapping(value = "/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter live(@RequestParam(defaultValue = "sensors/+/+,switches/+/+") String topics) {
+        List<String> filters = Arrays.stream(topics.split(",")).map(String::trim).filter(t -> !t.isEmpty()).distinct().toList();
+        if (filters.isEmpty() || filters.size() > MAX_FILTERS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Between 1 and " + MAX_FILTERS + " topic filters are required");
+        }
+        return subscribe(filters);
+    }
+
+    private SseEmitter subscribe(List<String> filters) {
+        try {
+            return hub.subscribe(filters);
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.tuapp.api.config;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Pool de conexiones a Mongo. Con hilos virtuales el límite de concurrencia ya no es el pool de Tomcat sino este:
+ * los pedidos que no consiguen conexión esperan como máximo max-wait-ms y fallan, en vez de acumularse sin tope.
+ */
+@Configuration
+public class MongoPoolConfig {
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoPool(
+            @Value("${app.mongo.max-pool-size:100}") int maxPoolSize,
+            @Value("${app.mongo.max-wait-ms:2000}") long maxWaitMs) {
+        return settings -> settings.applyToConnectionPoolSettings(pool -> pool
+                .maxSize(maxPoolSize)
+                .maxWaitTime(maxWaitMs, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,39 @@
+package com.tuapp.api.dto;
+
+import java.time.Instant;
+
+/** Agregado de una ventana de tiempo [ts, end) de una secuencia (parámetro bucket). */
+public class AgregadoDTO {
+    private Instant ts;    // inicio de la ventana
+    private Instant end;   // fin de la ventana (excluido)
+    private double avg;
+    private double min;
+    private double max;
+    private long count;
+    private String unit;
+
+    public AgregadoDTO(Instant ts, Instant end, double avg, double min, double max, long count, String unit) {
+        this.ts = ts;
+        this.end = end;
+        this.avg = avg;
+        this.min = min;
+        this.max = max;
+        this.count = count;
+        this.unit = unit;
+    }
+
+    public Instant getTs() { return ts; }
+    public void setTs(Instant ts) { this.ts = ts; }
+    public Instant getEnd() { return end; }
+    public void setEnd(Instant end) { this.end = end; }
+    public double getAvg() { return avg; }
+    public void setAvg(double avg) { this.avg = avg; }
+    public double getMin() { return min; }
+    public void setMin(double min) { this.min = min; }
+    public double getMax() { return max; }
+    public void setMax(double max) { this.max = max; }
+    public long getCount() { return count; }
+    public void setCount(long count) { this.count = count; }
+    public String getUnit() { return unit; }
+    public void setUnit(String unit) { this.unit = unit; }
+}
@@ -0,0 +1,241 @@
+package com.tuapp.api.live;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.tuapp.api.mongo.MongoReading.RawEntry;
+import com.tuapp.api.mqtt.LastValueCache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Reparte por SSE los valores que llegan a LastValueCache (una sola suscripción MQTT para toda la API):
+ * - Los clientes se agrupan por filtro de topic (comodines MQTT); cada mensaje se compara con los filtros distintos,
+ *   no con cada cliente.
+ * - Cada cliente tiene un buffer acotado que se queda solo con el último valor de cada topic (coalescing). Si se
+ *   junta más de bufferTopics topics pendientes se descarta el más viejo.
+ * - El envío corre en un hilo virtual por cliente, solo cuando hay algo pendiente; el callback MQTT nunca escribe
+ *   en un socket. Un cliente que lleva más de slowMs con un envío trabado se desconecta.
+ * - Cada heartbeatMs se manda un comentario SSE para detectar conexiones muertas detrás de proxies.
+ */
+@Component
+public class LiveHub {
+
+    private final LastValueCache cache;
+    private final int maxClients;
+    private final int bufferTopics;
+    private final long slowMs;
+
+    private final Map<String, Set<Client>> byFilter = new ConcurrentHashMap<>();
+    private final AtomicInteger clients = new AtomicInteger();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(
+            r -> Thread.ofPlatform().daemon(true).name("live-heartbeat").unstarted(r));
+    private final Counter coalesced;
+    private final Counter overflow;
+    private final Counter slow;
+
+    public LiveHub(LastValueCache cache,
+                   @Value("${app.live.max-clients:10000}") int maxClients,
+                   @Value("${app.live.buffer-topics:256}") int bufferTopics,
+                   @Value("${app.live.slow-ms:10000}") long slowMs,
+                   @Value("${app.live.heartbeat-ms:15000}") long heartbeatMs,
+                   MeterRegistry registry) {
+        this.cache = cache;
+        this.maxClients = maxClients;
+        this.bufferTopics = bufferTopics;
+        this.slowMs = slowMs;
+        this.coalesced = dropped(registry, "coalesced", "Valores reemplazados por uno más nuevo antes de enviarse");
+        this.overflow = dropped(registry, "overflow", "Topics pendientes descartados por buffer lleno");
+        this.slow = dropped(registry, "slow", "Clientes desconectados por lentos");
+        Gauge.builder("api.live.clients", clients, AtomicInteger::get)
+                .description("Clientes SSE conectados").register(registry);
+
+        cache.addListener(this::publish);
+        heartbeat.scheduleAtFixedRate(this::ping, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static Counter dropped(MeterRegistry registry, String reason, String description) {
+        return Counter.builder("api.live.dropped").tag("reason", reason).description(description).register(registry);
+    }
+
+    /** Nuevo cliente para los filtros dados; arranca con los últimos valores conocidos que coinciden. */
+    public SseEmitter subscribe(List<String> filters) {
+        if (clients.incrementAndGet() > maxClients) {
+            clients.decrementAndGet();
+            throw new IllegalStateException("demasiados clientes en vivo (max " + maxClients + ")");
+        }
+        SseEmitter emitter = new SseEmitter(0L); // sin timeout: lo corta el cliente, un error o slowMs
+        Client client = new Client(emitter, filters);
+        emitter.onCompletion(client::remove);
+        emitter.onTimeout(client::remove);
+        emitter.onError(e -> client.remove());
+        for (String f : filters) {
+            // compute: atómico con el remove() de otro cliente que deja el set vacío
+            byFilter.compute(f, (k, set) -> {
+                Set<Client> s = set == null ? ConcurrentHashMap.newKeySet() : set;
+                s.add(client);
+                return s;
+            });
+        }
+
+        for (Map.Entry<String, RawEntry> e : cache.snapshot().entrySet()) {
+            if (client.matches(e.getKey())) client.offer(e.getKey(), e.getValue());
+        }
+        return emitter;
+    }
+
+    /** Listener de LastValueCache (hilo de Paho): solo encola. */
+    private void publish(String topic, RawEntry entry) {
+        String[] levels = topic.split("/");
+        for (Map.Entry<String, Set<Client>> e : byFilter.entrySet()) {
+            if (!matches(e.getKey().split("/"), levels)) continue;
+            for (Client c : e.getValue()) c.offer(topic, entry);
+        }
+    }
+
+    private void ping() {
+        for (Set<Client> set : byFilter.values()) {
+            for (Client c : set) c.offer(null, null);
+        }
+    }
+
+    /** Match de filtro MQTT: '+' un nivel, '#' el resto. */
+    static boolean matches(String[] filter, String[] topic) {
+        for (int i = 0; i < filter.length; i++) {
+            if ("#".equals(filter[i])) return true;
+            if (i >= topic.length) return false;
+            if (!"+".equals(filter[i]) && !filter[i].equals(topic[i])) return false;
+        }
+        return filter.length == topic.length;
+    }
+
+    @PreDestroy
+    void stop() {
+        heartbeat.shutdownNow();
+        for (Set<Client> set : byFilter.values()) {
+            for (Client c : set) c.emitter.complete();
+        }
+        senders.shutdownNow();
+    }
+
+    private final class Client {
+        final SseEmitter emitter;
+        final List<String> filters;
+        final String[][] filterLevels;
+        // Último valor pendiente por topic (orden de llegada); guardado por 'this'
+        final LinkedHashMap<String, RawEntry> pending = new LinkedHashMap<>();
+        boolean pingPending;
+        boolean sending;
+        long sendingSince;
+        volatile boolean closed;
+
+        Client(SseEmitter emitter, List<String> filters) {
+            this.emitter = emitter;
+            this.filters = filters;
+            this.filterLevels = filters.stream().map(f -> f.split("/")).toArray(String[][]::new);
+        }
+
+        boolean matches(String topic) {
+            String[] levels = topic.split("/");
+            for (String[] f : filterLevels) if (LiveHub.matches(f, levels)) return true;
+            return false;
+        }
+
+        /** topic null = heartbeat. */
+        void offer(String topic, RawEntry entry) {
+            if (closed) return;
+            synchronized (this) {
+                if (sending && System.currentTimeMillis() - sendingSince > slowMs) {
+                    slow.increment();
+                    closed = true;
+                } else {
+                    if (topic == null) {
+                        pingPending = true;
+                    } else if (pending.put(topic, entry) != null) {
+                        coalesced.increment();
+                    } else if (pending.size() > bufferTopics) {
+                        Iterator<String> oldest = pending.keySet().iterator();
+                        oldest.next();
+                        oldest.remove();
+                        overflow.increment();
+                    }
+                    if (sending) return;
+                    sending = true;
+                    sendingSince = System.currentTimeMillis();
+                }
+            }
+            if (closed) {
+                // completeWithError libera la conexión aunque el envío trabado siga bloqueado
+                emitter.completeWithError(new IOException("cliente lento"));
+                remove();
+                return;
+            }
+            senders.execute(this::drain);
+        }
+
+        private void drain() {
+            while (!closed) {
+                Map<String, RawEntry> batch;
+                boolean ping;
+                synchronized (this) {
+                    if (pending.isEmpty() && !pingPending) {
+                        sending = false;
+                        return;
+                    }
+                    batch = new LinkedHashMap<>(pending);
+                    pending.clear();
+                    ping = pingPending;
+                    pingPending = false;
+                    sendingSince = System.currentTimeMillis();
+                }
+                try {
+                    for (Map.Entry<String, RawEntry> e : batch.entrySet()) {
+                        RawEntry r = e.getValue();
+                        Map<String, Object> data = new LinkedHashMap<>();
+                        data.put("topic", e.getKey());
+                        data.put("ts", r.getTs());
+                        data.put("receivedAt", r.getReceivedAt());
+                        data.put("payload", r.getPayload());
+                        emitter.send(SseEmitter.event().name("reading").id(Long.toString(r.getTs())).data(data));
+                    }
+                    if (ping && batch.isEmpty()) emitter.send(SseEmitter.event().comment("ping"));
+                } catch (IOException | IllegalStateException e) {
+                    // Cliente desconectado o emitter ya completado
+                    closed = true;
+                    remove();
+                    return;
+                }
+            }
+        }
+
+        void remove() {
+            closed = true;
+            boolean[] removed = {false};
+            for (String f : filters) {
+                byFilter.computeIfPresent(f, (k, set) -> {
+                    removed[0] |= set.remove(this);
+                    return set.isEmpty() ? null : set;
+                });
+            }
+            if (removed[0]) clients.decrementAndGet();
+        }
+    }
+}
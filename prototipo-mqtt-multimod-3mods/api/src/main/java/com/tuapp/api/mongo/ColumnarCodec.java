@@ -0,0 +1,160 @@
+package com.tuapp.api.mongo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.tuapp.api.mongo.MongoReading.RawEntry;
+
+/**
+ * Decoder del formato columnar "col1" que escribe el consumer al sellar buckets
+ * (com.tuapp.consumer.db.ColumnarCodec, donde está documentado el layout). Cambiar ambos a la vez.
+ * Largos de string y cantidad de columnas se leen en 16 bits: el encoder deja en BSON lo que no entra.
+ */
+public final class ColumnarCodec {
+    public static final String ENCODING = "col1";
+    private static final int VERSION = 1;
+
+    private ColumnarCodec() {}
+
+    /** Entradas del bloque en el orden en que se codificaron (por ts). */
+    public static List<RawEntry> decode(byte[] block) {
+        BitReader r = new BitReader(block);
+        int version = (int) r.read(8);
+        if (version != VERSION) throw new IllegalArgumentException("versión de bloque desconocida: " + version);
+        int n = (int) r.read(32);
+        long[] ts = readLongs(r, n);
+        long[] rx = readLongs(r, n);
+        List<Map<String, Object>> payloads = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) payloads.add(new LinkedHashMap<>());
+        int cols = (int) r.read(16);
+        for (int c = 0; c < cols; c++) {
+            String key = readString(r);
+            char type = (char) r.read(8);
+            Object[] values = readColumn(r, type, n, ts);
+            for (int i = 0; i < n; i++) {
+                if (values[i] != null) payloads.get(i).put(key, values[i]);
+            }
+        }
+        List<RawEntry> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            RawEntry e = new RawEntry();
+            e.setTs(ts[i]);
+            e.setReceivedAt(rx[i]);
+            e.setPayload(payloads.get(i));
+            out.add(e);
+        }
+        return out;
+    }
+
+    private static Object[] readColumn(BitReader r, char type, int n, long[] ts) {
+        boolean[] present = new boolean[n];
+        if (r.read(1) == 1) {
+            Arrays.fill(present, true);
+        } else {
+            for (int i = 0; i < n; i++) present[i] = r.read(1) == 1;
+        }
+        int count = 0;
+        for (boolean p : present) if (p) count++;
+
+        Object[] out = new Object[n];
+        switch (type) {
+            case 'T' -> { for (int i = 0; i < n; i++) if (present[i]) out[i] = ts[i]; }
+            case 'B' -> { for (int i = 0; i < n; i++) if (present[i]) out[i] = r.read(1) == 1; }
+            case 'L', 'I' -> {
+                long[] vals = readLongs(r, count);
+                for (int i = 0, j = 0; i < n; i++) {
+                    if (present[i]) out[i] = type == 'I' ? (Object) (int) vals[j++] : (Object) vals[j++];
+                }
+            }
+            case 'D' -> {
+                XorReader x = new XorReader(r);
+                for (int i = 0; i < n; i++) if (present[i]) out[i] = x.read();
+            }
+            case 'S' -> {
+                int size = (int) r.read(32);
+                String[] dict = new String[size];
+                for (int i = 0; i < size; i++) dict[i] = readString(r);
+                int bits = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+                for (int i = 0; i < n; i++) if (present[i]) out[i] = dict[(int) r.read(bits)];
+            }
+            default -> throw new IllegalArgumentException("tipo de columna desconocido: " + type);
+        }
+        return out;
+    }
+
+    private static String readString(BitReader r) {
+        byte[] b = new byte[(int) r.read(16)];
+        for (int i = 0; i < b.length; i++) b[i] = (byte) r.read(8);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** Primer valor en 64 bits; después delta-of-delta con prefijos '0' | '10' | '110' | '1110' | '1111'. */
+    private static long[] readLongs(BitReader r, int n) {
+        long[] out = new long[n];
+        long prev = 0, prevDelta = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0) {
+                out[0] = r.read(64);
+            } else {
+                long dod;
+                if (r.read(1) == 0) dod = 0;
+                else if (r.read(1) == 0) dod = r.read(7) - 63;
+                else if (r.read(1) == 0) dod = r.read(9) - 255;
+                else if (r.read(1) == 0) dod = r.read(12) - 2047;
+                else dod = r.read(64);
+                long delta = prevDelta + dod;
+                out[i] = prev + delta;
+                prevDelta = delta;
+            }
+            prev = out[i];
+        }
+        return out;
+    }
+
+    /** Doubles con XOR (Gorilla). */
+    private static final class XorReader {
+        private final BitReader r;
+        private long prev;
+        private int prevLeading, prevTrailing;
+        private boolean first = true;
+
+        XorReader(BitReader r) { this.r = r; }
+
+        double read() {
+            if (first) {
+                first = false;
+                prev = r.read(64);
+            } else if (r.read(1) == 1) {
+                if (r.read(1) == 1) {
+                    prevLeading = (int) r.read(5);
+                    int significant = (int) r.read(6) + 1;
+                    prevTrailing = 64 - prevLeading - significant;
+                }
+                prev ^= r.read(64 - prevLeading - prevTrailing) << prevTrailing;
+            }
+            return Double.longBitsToDouble(prev);
+        }
+    }
+
+    /** Flujo de bits, MSB primero. */
+    private static final class BitReader {
+        private final byte[] buf;
+        private long bitPos;
+
+        BitReader(byte[] buf) { this.buf = buf; }
+
+        long read(int bits) {
+            long v = 0;
+            for (int i = 0; i < bits; i++) {
+                int b = buf[(int) (bitPos >>> 3)] >>> (7 - (bitPos & 7)) & 1;
+                v = (v << 1) | b;
+                bitPos++;
+            }
+            return v;
+        }
+    }
+}
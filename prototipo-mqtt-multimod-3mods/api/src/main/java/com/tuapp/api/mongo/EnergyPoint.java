@@ -0,0 +1,58 @@
+package com.tuapp.api.mongo;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Punto de la serie de energía acumulada que escribe el consumer (EnergyAccumulator):
+ * cumWh es la energía hasta ts y power la potencia vigente desde ts hasta el próximo punto.
+ */
+@Document(collection = "energy_cumulative")
+public class EnergyPoint {
+    @Id
+    private String id;
+    private String key;
+    private long ts;
+    private double cumWh;
+    private double power;
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	public long getTs() {
+		return ts;
+	}
+
+	public void setTs(long ts) {
+		this.ts = ts;
+	}
+
+	public double getCumWh() {
+		return cumWh;
+	}
+
+	public void setCumWh(double cumWh) {
+		this.cumWh = cumWh;
+	}
+
+	public double getPower() {
+		return power;
+	}
+
+	public void setPower(double power) {
+		this.power = power;
+	}
+}
@@ -0,0 +1,14 @@
+package com.tuapp.api.mongo;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface EnergyRepo extends MongoRepository<EnergyPoint, String> {
+    // Último punto con ts <= dado (usa el índice key + ts)
+    Optional<EnergyPoint> findFirstByKeyAndTsLessThanEqualOrderByTsDesc(String key, long ts);
+
+    boolean existsByKey(String key);
+}
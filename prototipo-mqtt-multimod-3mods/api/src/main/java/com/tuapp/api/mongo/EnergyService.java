@@ -0,0 +1,39 @@
+package com.tuapp.api.mongo;
+
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Consumo por rango sobre la serie acumulada del consumer: E(fin) - E(inicio), dos búsquedas por índice
+ * sin importar el largo del rango. Entre puntos la potencia se mantiene, con el mismo tope de hueco
+ * (app.energy.max-gap-ms) que usa el consumer al integrar.
+ */
+@Service
+public class EnergyService {
+
+    private static final double MS_PER_HOUR = 3_600_000.0;
+
+    private final EnergyRepo repo;
+    private final long maxGapMs;
+
+    public EnergyService(EnergyRepo repo, @Value("${app.energy.max-gap-ms:900000}") long maxGapMs) {
+        this.repo = repo;
+        this.maxGapMs = maxGapMs;
+    }
+
+    /** kWh consumidos por el switch (clave "switches/&lt;room&gt;") en [startTs, endTs]; vacío si nunca reportó. */
+    public Optional<Double> consumptionKWh(String key, long startTs, long endTs) {
+        if (!repo.existsByKey(key)) return Optional.empty();
+        return Optional.of((energyWh(key, endTs) - energyWh(key, startTs)) / 1000.0);
+    }
+
+    /** Energía acumulada hasta ts en Wh (0 antes del primer punto). */
+    private double energyWh(String key, long ts) {
+        Optional<EnergyPoint> p = repo.findFirstByKeyAndTsLessThanEqualOrderByTsDesc(key, ts);
+        if (p.isEmpty()) return 0.0;
+        EnergyPoint e = p.get();
+        return e.getCumWh() + e.getPower() * Math.min(ts - e.getTs(), maxGapMs) / MS_PER_HOUR;
+    }
+}
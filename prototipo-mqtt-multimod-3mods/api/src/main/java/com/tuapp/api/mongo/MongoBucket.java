@@ -0,0 +1,125 @@
+package com.tuapp.api.mongo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import com.tuapp.api.mongo.MongoReading.RawEntry;
+
+/**
+ * Bucket de lecturas (MONGO_STORAGE_MODE=bucket en el consumer):
+ * un documento por topic y ventana [bucketStart, bucketEnd).
+ * Si el consumer ya lo selló (MONGO_BUCKET_ENCODING=columnar) las lecturas están en 'block' y
+ * 'raws' solo tiene las que llegaron tarde; entries() junta ambas.
+ */
+@Document(collection = "readings_buckets")
+public class MongoBucket {
+    @Id
+    private String id;
+    private String topic;
+    private long bucketStart;
+    private long bucketEnd;
+    private long minTs;
+    private long maxTs;
+    private int count;
+    private List<RawEntry> raws;
+    private byte[] block;
+    private String encoding;
+
+    /** Lecturas del bucket ordenadas por ts, decodificando el bloque columnar si existe. */
+    public List<RawEntry> entries() {
+        if (block == null) return raws;
+        if (!ColumnarCodec.ENCODING.equals(encoding)) {
+            throw new IllegalStateException("encoding de bucket no soportado: " + encoding);
+        }
+        List<RawEntry> out = new ArrayList<>(ColumnarCodec.decode(block));
+        if (raws != null && !raws.isEmpty()) {
+            out.addAll(raws);
+            out.sort(Comparator.comparingLong(RawEntry::getTs));
+        }
+        return out;
+    }
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public void setTopic(String topic) {
+		this.topic = topic;
+	}
+
+	public long getBucketStart() {
+		return bucketStart;
+	}
+
+	public void setBucketStart(long bucketStart) {
+		this.bucketStart = bucketStart;
+	}
+
+	public long getBucketEnd() {
+		return bucketEnd;
+	}
+
+	public void setBucketEnd(long bucketEnd) {
+		this.bucketEnd = bucketEnd;
+	}
+
+	public long getMinTs() {
+		return minTs;
+	}
+
+	public void setMinTs(long minTs) {
+		this.minTs = minTs;
+	}
+
+	public long getMaxTs() {
+		return maxTs;
+	}
+
+	public void setMaxTs(long maxTs) {
+		this.maxTs = maxTs;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	public List<RawEntry> getRaws() {
+		return raws;
+	}
+
+	public void setRaws(List<RawEntry> raws) {
+		this.raws = raws;
+	}
+
+	public byte[] getBlock() {
+		return block;
+	}
+
+	public void setBlock(byte[] block) {
+		this.block = block;
+	}
+
+	public String getEncoding() {
+		return encoding;
+	}
+
+	public void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+}
@@ -0,0 +1,17 @@
+package com.tuapp.api.mongo;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface MongoBucketRepo extends MongoRepository<MongoBucket, String> {
+    // Bucket más reciente del topic (usa el índice topic + bucketStart)
+    Optional<MongoBucket> findFirstByTopicOrderByBucketStartDesc(String topic);
+
+    // Buckets que se solapan con [startTs, endTs]: bucketStart <= endTs y bucketEnd > startTs
+    List<MongoBucket> findByTopicAndBucketStartLessThanEqualAndBucketEndGreaterThanOrderByBucketStartAsc(
+            String topic, long endTs, long startTs);
+}
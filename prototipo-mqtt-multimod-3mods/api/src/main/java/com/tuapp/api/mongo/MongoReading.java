@@ -12,8 +12,10 @@ public class MongoReading {
     private String id;
     private String topic;
 	private long lastTs;
+    private long receivedAt; // recepción de la última escritura (cabecera del topic)
     private int count;
     private List<RawEntry> raws;
+    private RawEntry last;
 
     public String getId() {
 		return id;
@@ -39,6 +41,14 @@ public class MongoReading {
 		this.lastTs = lastTs;
 	}
 
+	public long getReceivedAt() {
+		return receivedAt;
+	}
+
+	public void setReceivedAt(long receivedAt) {
+		this.receivedAt = receivedAt;
+	}
+
 	public int getCount() {
 		return count;
 	}
@@ -55,6 +65,14 @@ public class MongoReading {
 		this.raws = raws;
 	}
 
+	public RawEntry getLast() {
+		return last;
+	}
+
+	public void setLast(RawEntry last) {
+		this.last = last;
+	}
+
     public static class RawEntry {
         private long ts;
         private long receivedAt;
@@ -78,5 +96,24 @@ public class MongoReading {
 		public void setPayload(Map<String, Object> payload) {
 			this.payload = payload;
 		}
+
+		/**
+		 * Valor numérico de un campo del payload. El consumer ya guarda los campos numéricos tipados;
+		 * el String solo aparece en documentos viejos (ej. humidity "60") y se convierte como fallback.
+		 * Devuelve null si el campo no está o no es numérico.
+		 */
+		public Double number(String key) {
+			if (payload == null) return null;
+			Object v = payload.get(key);
+			if (v instanceof Number n) return n.doubleValue();
+			if (v instanceof String s) {
+				try {
+					return Double.valueOf(s);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			}
+			return null;
+		}
     }
 }
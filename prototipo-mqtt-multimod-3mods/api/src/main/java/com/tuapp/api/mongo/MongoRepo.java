@@ -1,6 +1,7 @@
 package com.tuapp.api.mongo;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -9,4 +10,12 @@ import java.util.Optional;
 public interface MongoRepo extends MongoRepository<MongoReading, String> {
     // Buscar por topic (ej: "sensors/room-1/1")
     Optional<MongoReading> findByTopic(String topic);
+
+    // Solo la cabecera: 'last' (lo escribe el consumer) y, para documentos anteriores, el último elemento de 'raws'
+    @Query(value = "{ 'topic': ?0 }", fields = "{ 'topic': 1, 'lastTs': 1, 'count': 1, 'last': 1, 'raws': { '$slice': -1 } }")
+    Optional<MongoReading> findLatestByTopic(String topic);
+
+    // Versión del topic (lastTs + count, receivedAt) para ETag/Last-Modified: sale entera del índice topic_lastTs_count_receivedAt
+    @Query(value = "{ 'topic': ?0 }", fields = "{ '_id': 0, 'lastTs': 1, 'count': 1, 'receivedAt': 1 }")
+    Optional<MongoReading> findVersionByTopic(String topic);
 }
@@ -0,0 +1,162 @@
+package com.tuapp.api.mongo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import com.tuapp.api.mongo.MongoReading.RawEntry;
+import com.tuapp.api.mqtt.LastValueCache;
+import com.tuapp.api.series.Lttb;
+import com.tuapp.api.series.TimeBuckets;
+
+/**
+ * Lecturas por topic independientes del layout que escribe el consumer:
+ * - "topic": un documento por topic con todas las lecturas en 'raws'.
+ * - "bucket": un documento por topic y ventana de tiempo (readings_buckets), en BSON o sellado en bloque columnar.
+ * latest() sale de la caché MQTT (LastValueCache); si no la tiene, lee solo la cabecera del topic
+ * ('last' o raws con $slice: -1), así no depende de la antigüedad del topic.
+ */
+@Service
+public class ReadingService {
+
+    private static final int CURSOR_BATCH = 1000;
+
+    private final MongoRepo readingRepo;
+    private final MongoBucketRepo bucketRepo;
+    private final MongoTemplate mongo;
+    private final LastValueCache cache;
+    private final boolean bucketed;
+
+    public ReadingService(MongoRepo readingRepo, MongoBucketRepo bucketRepo, MongoTemplate mongo, LastValueCache cache,
+                          @Value("${app.storage.mode:topic}") String storageMode) {
+        this.readingRepo = readingRepo;
+        this.bucketRepo = bucketRepo;
+        this.mongo = mongo;
+        this.cache = cache;
+        this.bucketed = "bucket".equalsIgnoreCase(storageMode);
+    }
+
+    /** Última lectura del topic, si hay: de la caché MQTT o, si no la tiene, de Mongo (y se siembra la caché). */
+    public Optional<RawEntry> latest(String topic) {
+        long session = cache.session();
+        Optional<RawEntry> cached = cache.get(topic);
+        if (cached.isPresent()) return cached;
+        Optional<RawEntry> stored = latestStored(topic);
+        stored.ifPresent(e -> cache.seed(topic, e, session));
+        return stored;
+    }
+
+    private Optional<RawEntry> latestStored(String topic) {
+        Optional<MongoReading> head = readingRepo.findLatestByTopic(topic);
+        if (head.isPresent()) {
+            MongoReading h = head.get();
+            if (h.getLast() != null) return Optional.of(h.getLast());
+            if (h.getRaws() != null && !h.getRaws().isEmpty()) return Optional.of(h.getRaws().get(0));
+        }
+        if (!bucketed) return Optional.empty();
+        // Cabecera escrita antes de que existiera 'last': último elemento del bucket más reciente
+        List<RawEntry> raws = bucketRepo.findFirstByTopicOrderByBucketStartDesc(topic).map(MongoBucket::entries).orElse(null);
+        if (raws == null || raws.isEmpty()) return Optional.empty();
+        return Optional.of(raws.get(raws.size() - 1));
+    }
+
+    /** lastTs y count del topic (cambian con cada escritura), sin leer 'raws' ni buckets; vacío si no existe. */
+    public Optional<MongoReading> version(String topic) {
+        return readingRepo.findVersionByTopic(topic);
+    }
+
+    /**
+     * Lecturas del topic con ts en [startTs, endTs], en orden, con el payload reducido a 'field'.
+     * El filtro por ts y la proyección corren en Mongo ($filter + $map sobre 'raws'): solo viajan las lecturas del rango.
+     * En modo "bucket" además solo se leen los buckets que tocan el rango (índice topic + bucketStart); los bloques
+     * columnares se decodifican y filtran acá.
+     */
+    public List<RawEntry> range(String topic, String field, long startTs, long endTs) {
+        List<RawEntry> out = new ArrayList<>();
+        forEachInRange(topic, field, startTs, endTs, out::add);
+        return out;
+    }
+
+    /**
+     * Igual que range() pero entrega cada lectura a medida que llega del cursor, sin juntarlas:
+     * en modo "topic" el array filtrado se desarma en Mongo ($unwind) y viaja en lotes de CURSOR_BATCH;
+     * en modo "bucket" se tiene en memoria un bucket a la vez.
+     */
+    public void forEachInRange(String topic, String field, long startTs, long endTs, Consumer<RawEntry> sink) {
+        Document project = new Document("_id", 0).append("raws", rawsInRange(field, startTs, endTs));
+        if (bucketed) {
+            List<Document> pipeline = List.of(
+                    new Document("$match", new Document("topic", topic)
+                            .append("bucketStart", new Document("$lte", endTs))
+                            .append("bucketEnd", new Document("$gt", startTs))),
+                    new Document("$sort", new Document("bucketStart", 1)),
+                    new Document("$project", project.append("block", 1).append("encoding", 1)));
+            // try-with-resources: si el cliente corta la descarga el cursor se cierra en el momento
+            try (MongoCursor<Document> cursor = mongo.getCollection(mongo.getCollectionName(MongoBucket.class))
+                    .aggregate(pipeline).batchSize(1).cursor()) {
+                while (cursor.hasNext()) {
+                    MongoBucket b = mongo.getConverter().read(MongoBucket.class, cursor.next());
+                    // 'raws' ya viene filtrado; el bloque columnar trae el bucket entero
+                    List<RawEntry> raws = b.entries();
+                    if (raws == null) continue;
+                    for (RawEntry raw : raws) {
+                        if (raw.getTs() >= startTs && raw.getTs() <= endTs) sink.accept(raw);
+                    }
+                }
+            }
+        } else {
+            List<Document> pipeline = List.of(
+                    new Document("$match", new Document("topic", topic)),
+                    new Document("$project", project),
+                    new Document("$unwind", "$raws"),
+                    new Document("$replaceWith", "$raws"));
+            try (MongoCursor<Document> cursor = mongo.getCollection(mongo.getCollectionName(MongoReading.class))
+                    .aggregate(pipeline).batchSize(CURSOR_BATCH).cursor()) {
+                while (cursor.hasNext()) sink.accept(mongo.getConverter().read(RawEntry.class, cursor.next()));
+            }
+        }
+    }
+
+    /** range() reducido con LTTB a maxPoints como máximo, en la misma pasada del cursor (lecturas con 'field' numérico). */
+    public List<RawEntry> downsample(String topic, String field, long startTs, long endTs, int maxPoints) {
+        List<RawEntry> out = new ArrayList<>(maxPoints);
+        Lttb<RawEntry> lttb = new Lttb<>(startTs, endTs, maxPoints, RawEntry::getTs, raw -> raw.number(field), out::add);
+        forEachInRange(topic, field, startTs, endTs, raw -> {
+            if (raw.number(field) != null) lttb.add(raw);
+        });
+        lttb.finish();
+        return out;
+    }
+
+    /** avg/min/max/count de 'field' por ventana de spanMs alineada a epoch, en una pasada del cursor. */
+    public List<TimeBuckets.Bucket> aggregate(String topic, String field, long startTs, long endTs, long spanMs) {
+        TimeBuckets buckets = new TimeBuckets(spanMs);
+        forEachInRange(topic, field, startTs, endTs, raw -> {
+            Double v = raw.number(field);
+            if (v != null) buckets.add(raw.getTs(), v);
+        });
+        return buckets.result();
+    }
+
+    /** Expresión de agregación: entradas de 'raws' con ts en el rango, solo con ts, receivedAt y payload.field. */
+    private static Document rawsInRange(String field, long startTs, long endTs) {
+        Document inRange = new Document("$and", List.of(
+                new Document("$gte", List.of("$$r.ts", startTs)),
+                new Document("$lte", List.of("$$r.ts", endTs))));
+        Document filter = new Document("$filter", new Document("input", new Document("$ifNull", List.of("$raws", List.of())))
+                .append("as", "r")
+                .append("cond", inRange));
+        return new Document("$map", new Document("input", filter)
+                .append("as", "r")
+                .append("in", new Document("ts", "$$r.ts")
+                        .append("receivedAt", "$$r.receivedAt")
+                        .append("payload", new Document(field, "$$r.payload." + field))));
+    }
+}
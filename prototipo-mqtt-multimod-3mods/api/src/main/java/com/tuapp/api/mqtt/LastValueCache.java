@@ -0,0 +1,231 @@
+package com.tuapp.api.mqtt;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tuapp.api.mongo.MongoReading.RawEntry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Último valor por topic alimentado por MQTT (sensors/+/+ y switches/+/+), para que los endpoints "latest"
+ * no vayan a Mongo:
+ * - Cada mensaje reemplaza la entrada del topic si su ts no es más viejo que el guardado.
+ * - get() solo responde con el cliente conectado; si no, o si el topic todavía no llegó, es un miss y
+ *   ReadingService va a Mongo y siembra la entrada con seed().
+ * - Al perder la conexión se vacía: la sesión es limpia y lo publicado mientras tanto no llega, así que los
+ *   valores viejos no son confiables. Cada conexión / desconexión cambia session(): una siembra leída de Mongo
+ *   en otra sesión se descarta, y la primera consulta de cada topic tras reconectar vuelve a Mongo.
+ * - Los listeners (LiveHub) reciben cada valor nuevo que llega por MQTT, en el hilo de callback de Paho:
+ *   no deben bloquear.
+ * - Métricas (Actuator /actuator/metrics): api.latest.cache{result=hit|miss}, api.latest.cache.age (ms desde
+ *   que llegó el valor servido), api.latest.cache.size y api.latest.cache.connected.
+ */
+@Component
+public class LastValueCache {
+
+    private static final String[] TOPICS = {"sensors/+/+", "switches/+/+"};
+    private static final long RETRY_MS = 5000;
+
+    private final ConcurrentHashMap<String, RawEntry> values = new ConcurrentHashMap<>();
+    private final List<BiConsumer<String, RawEntry>> listeners = new CopyOnWriteArrayList<>();
+    private final ObjectMapper json;
+    private final boolean enabled;
+    private final String brokerUrl;
+    private final Counter hits;
+    private final Counter misses;
+    private final DistributionSummary age;
+
+    private MqttAsyncClient client;
+    private Thread connector;
+    private volatile boolean connected;
+    private volatile long session; // cambia con cada conexión y desconexión; escrito bajo 'values'
+    private volatile boolean running = true;
+
+    public LastValueCache(@Value("${app.mqtt.broker}") String broker,
+                          @Value("${app.mqtt.port}") int port,
+                          @Value("${app.mqtt.cache.enabled:true}") boolean enabled,
+                          ObjectMapper json, MeterRegistry registry) {
+        this.brokerUrl = "tcp://" + broker + ":" + port;
+        this.enabled = enabled;
+        this.json = json;
+        this.hits = Counter.builder("api.latest.cache").tag("result", "hit")
+                .description("Lecturas latest servidas desde la caché MQTT").register(registry);
+        this.misses = Counter.builder("api.latest.cache").tag("result", "miss")
+                .description("Lecturas latest que fueron a Mongo").register(registry);
+        this.age = DistributionSummary.builder("api.latest.cache.age").baseUnit("milliseconds")
+                .description("Antigüedad del valor servido desde la caché (ahora - recepción)")
+                .publishPercentiles(0.5, 0.99).register(registry);
+        Gauge.builder("api.latest.cache.size", values, Map::size).register(registry);
+        Gauge.builder("api.latest.cache.connected", this, c -> c.connected ? 1 : 0).register(registry);
+    }
+
+    @PostConstruct
+    void start() throws MqttException {
+        if (!enabled) return;
+        client = new MqttAsyncClient(brokerUrl, "api-cache-" + MqttAsyncClient.generateClientId(), new MemoryPersistence());
+        client.setCallback(new MqttCallbackExtended() {
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                // También en cada reconexión automática (sesión limpia: hay que volver a suscribirse)
+                try {
+                    client.subscribe(TOPICS, new int[] {0, 0});
+                    synchronized (values) {
+                        session++;
+                        connected = true;
+                    }
+                    System.out.println("[api] caché MQTT suscripta a " + String.join(", ", TOPICS) + " en " + serverURI);
+                } catch (MqttException e) {
+                    System.err.println("[api] caché MQTT: error al suscribirse: " + e.getMessage());
+                }
+            }
+
+            @Override
+            public void connectionLost(Throwable cause) {
+                int dropped;
+                synchronized (values) {
+                    connected = false;
+                    session++;
+                    dropped = values.size();
+                    values.clear();
+                }
+                System.err.println("[api] caché MQTT desconectada: " + cause.getMessage() + " (se descartan " + dropped + " valores)");
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                put(topic, message.getPayload(), System.currentTimeMillis());
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {}
+        });
+        // La reconexión automática de Paho solo actúa después de un primer connect exitoso: hasta entonces se reintenta acá
+        connector = Thread.ofVirtual().name("api-mqtt-connect").start(this::connectLoop);
+    }
+
+    private void connectLoop() {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setAutomaticReconnect(true);
+        options.setCleanSession(true);
+        options.setConnectionTimeout(10);
+        while (running) {
+            try {
+                client.connect(options).waitForCompletion();
+                return;
+            } catch (MqttException e) {
+                System.err.println("[api] caché MQTT: broker " + brokerUrl + " no disponible, reintento en " + RETRY_MS + " ms");
+            }
+            try {
+                Thread.sleep(RETRY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    void put(String topic, byte[] payload, long receivedAt) {
+        Map<String, Object> map;
+        try {
+            map = json.readValue(payload, new TypeReference<Map<String, Object>>() {});
+        } catch (Exception e) {
+            return; // payload no JSON: no se cachea (el consumer tampoco lo guarda)
+        }
+        RawEntry entry = new RawEntry();
+        entry.setTs(ts(map.get("ts"), receivedAt));
+        entry.setReceivedAt(receivedAt);
+        entry.setPayload(map);
+        merge(topic, entry);
+        if (values.get(topic) != entry) return; // llegó fuera de orden: no es el último valor
+        for (BiConsumer<String, RawEntry> l : listeners) {
+            try {
+                l.accept(topic, entry);
+            } catch (RuntimeException e) {
+                System.err.println("[api] caché MQTT: error en listener topic=" + topic + " err=" + e.getMessage());
+            }
+        }
+    }
+
+    public void addListener(BiConsumer<String, RawEntry> listener) {
+        listeners.add(listener);
+    }
+
+    /** Vista de solo lectura de los últimos valores conocidos (estado inicial de los clientes en vivo). */
+    public Map<String, RawEntry> snapshot() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /** Sesión MQTT actual: tomarla antes de leer de Mongo y pasarla a seed(). */
+    public long session() {
+        return session;
+    }
+
+    /** Siembra una entrada leída de Mongo si la caché sigue conectada en la misma sesión en que empezó la lectura. */
+    public void seed(String topic, RawEntry entry, long readSession) {
+        synchronized (values) {
+            if (!connected || readSession != session) return;
+            merge(topic, entry);
+        }
+    }
+
+    /** Guarda la entrada si es al menos tan nueva como la que hay. */
+    private void merge(String topic, RawEntry entry) {
+        values.merge(topic, entry, (old, e) -> e.getTs() >= old.getTs() ? e : old);
+    }
+
+    /** Último valor del topic si la caché está conectada y lo tiene; cuenta hit/miss. */
+    public Optional<RawEntry> get(String topic) {
+        RawEntry e = connected ? values.get(topic) : null;
+        if (e == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        age.record(Math.max(0, System.currentTimeMillis() - e.getReceivedAt()));
+        return Optional.of(e);
+    }
+
+    /** Mismo criterio que el consumer: ts numérico o string numérico; si falta, el momento de recepción. */
+    private static long ts(Object v, long fallback) {
+        if (v instanceof Number n) return n.longValue();
+        if (v instanceof String s) {
+            try {
+                return Long.parseLong(s.trim());
+            } catch (NumberFormatException ignored) {}
+        }
+        return fallback;
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (connector != null) connector.interrupt();
+        if (client == null) return;
+        try {
+            if (client.isConnected()) client.disconnect().waitForCompletion(2000);
+            client.close();
+        } catch (MqttException ignored) {}
+    }
+}
@@ -0,0 +1,120 @@
+package com.tuapp.api.series;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Largest-Triangle-Three-Buckets en una sola pasada sobre puntos ordenados por ts.
+ * - El rango [startTs, endTs] se parte en maxPoints - 2 ventanas de tiempo iguales; el primer y el último punto
+ *   siempre salen, y de cada ventana con datos sale el punto que forma el triángulo más grande con el elegido
+ *   anterior y el promedio de la ventana siguiente.
+ * - Como el triángulo necesita la ventana siguiente, se retienen a lo sumo dos ventanas: la memoria depende de
+ *   la densidad de una ventana, no del total del rango. Con menos puntos que ventanas salen todos.
+ * Uso: add() por cada punto y finish() al final; los elegidos se entregan al Consumer a medida que se deciden.
+ */
+public final class Lttb<T> {
+
+    private final long startTs;
+    private final long span;
+    private final int windows;
+    private final ToLongFunction<T> ts;
+    private final ToDoubleFunction<T> value;
+    private final Consumer<T> out;
+
+    private T first;      // primer punto (se emite al llegar)
+    private T selected;   // último punto emitido: vértice A del triángulo
+    private List<T> current = new ArrayList<>();
+    private long currentWindow = -1;
+    private List<T> next = new ArrayList<>();
+    private long nextWindow = -1;
+
+    public Lttb(long startTs, long endTs, int maxPoints, ToLongFunction<T> ts, ToDoubleFunction<T> value, Consumer<T> out) {
+        if (maxPoints < 3) throw new IllegalArgumentException("maxPoints debe ser >= 3");
+        this.startTs = startTs;
+        this.span = Math.max(1, endTs - startTs + 1);
+        this.windows = maxPoints - 2;
+        this.ts = ts;
+        this.value = value;
+        this.out = out;
+    }
+
+    public void add(T p) {
+        if (first == null) {
+            first = p;
+            selected = p;
+            out.accept(p);
+            return;
+        }
+        long w = windowOf(ts.applyAsLong(p));
+        if (currentWindow < 0 || w <= currentWindow) {
+            // Primera ventana o punto fuera de orden: se suma a la ventana actual
+            if (currentWindow < 0) currentWindow = w;
+            current.add(p);
+        } else if (nextWindow < 0 || w <= nextWindow) {
+            if (nextWindow < 0) nextWindow = w;
+            next.add(p);
+        } else {
+            // Arrancó una tercera ventana: ya se conoce el promedio de 'next' y se decide 'current'
+            emitBest(current, avgTs(next), avgValue(next));
+            current = next;
+            currentWindow = nextWindow;
+            next = new ArrayList<>();
+            next.add(p);
+            nextWindow = w;
+        }
+    }
+
+    /** Decide lo que quedaba retenido y emite el último punto. */
+    public void finish() {
+        if (first == null) return;
+        List<T> tail = next.isEmpty() ? current : next;
+        if (tail.isEmpty()) return;
+        T last = tail.remove(tail.size() - 1);
+        if (tail != current) {
+            List<T> c = next.isEmpty() ? List.of(last) : next;
+            emitBest(current, avgTs(c), avgValue(c));
+        }
+        emitBest(tail, ts.applyAsLong(last), value.applyAsDouble(last));
+        out.accept(last);
+        current.clear();
+        next.clear();
+    }
+
+    private void emitBest(List<T> candidates, double cx, double cy) {
+        if (candidates.isEmpty()) return;
+        double ax = ts.applyAsLong(selected), ay = value.applyAsDouble(selected);
+        T best = candidates.get(0);
+        double bestArea = -1;
+        for (T p : candidates) {
+            double bx = ts.applyAsLong(p), by = value.applyAsDouble(p);
+            // Doble del área del triángulo A-B-C (solo se compara)
+            double area = Math.abs((ax - cx) * (by - ay) - (ax - bx) * (cy - ay));
+            if (area > bestArea) {
+                bestArea = area;
+                best = p;
+            }
+        }
+        selected = best;
+        out.accept(best);
+    }
+
+    private long windowOf(long t) {
+        long w = (long) ((double) (t - startTs) * windows / span);
+        return Math.max(0, Math.min(windows - 1, w));
+    }
+
+    private double avgTs(List<T> points) {
+        double sum = 0;
+        for (T p : points) sum += ts.applyAsLong(p);
+        return sum / points.size();
+    }
+
+    private double avgValue(List<T> points) {
+        double sum = 0;
+        for (T p : points) sum += value.applyAsDouble(p);
+        return sum / points.size();
+    }
+}
@@ -0,0 +1,70 @@
+package com.tuapp.api.series;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Agregados avg/min/max/count por ventana de tiempo alineada a epoch (UTC), en una pasada.
+ * La memoria es un acumulador por ventana con datos: está acotada por la cantidad de ventanas, no de lecturas.
+ */
+public final class TimeBuckets {
+
+    /** Ventana ya cerrada. */
+    public record Bucket(long start, long end, double avg, double min, double max, long count) {}
+
+    private static final class Acc {
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum;
+        long count;
+    }
+
+    private final long spanMs;
+    // TreeMap: tolera lecturas fuera de orden y devuelve las ventanas ordenadas
+    private final TreeMap<Long, Acc> buckets = new TreeMap<>();
+
+    public TimeBuckets(long spanMs) {
+        if (spanMs <= 0) throw new IllegalArgumentException("bucket debe ser > 0");
+        this.spanMs = spanMs;
+    }
+
+    public void add(long ts, double v) {
+        Acc a = buckets.computeIfAbsent(Math.floorDiv(ts, spanMs) * spanMs, k -> new Acc());
+        if (v < a.min) a.min = v;
+        if (v > a.max) a.max = v;
+        a.sum += v;
+        a.count++;
+    }
+
+    public List<Bucket> result() {
+        List<Bucket> out = new ArrayList<>(buckets.size());
+        for (Map.Entry<Long, Acc> e : buckets.entrySet()) {
+            Acc a = e.getValue();
+            out.add(new Bucket(e.getKey(), e.getKey() + spanMs, a.sum / a.count, a.min, a.max, a.count));
+        }
+        return out;
+    }
+
+    /** "30s", "5m", "1h", "1d" (o milisegundos sin unidad) a milisegundos; IllegalArgumentException si no entra en un long. */
+    public static long parseSpan(String text) {
+        String t = text.trim().toLowerCase(Locale.ROOT);
+        if (t.isEmpty()) throw new IllegalArgumentException("bucket vacío");
+        char unit = t.charAt(t.length() - 1);
+        long mult = switch (unit) {
+            case 's' -> 1_000L;
+            case 'm' -> 60_000L;
+            case 'h' -> 3_600_000L;
+            case 'd' -> 86_400_000L;
+            default -> 1L;
+        };
+        String number = mult == 1L ? t : t.substring(0, t.length() - 1);
+        long n = Long.parseLong(number);
+        if (n <= 0) throw new IllegalArgumentException("bucket debe ser > 0: " + text);
+        try {
+            return Math.multiplyExact(n, mult);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("bucket demasiado grande: " + text);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.tuapp.api.mongo;
+
+import com.tuapp.api.mongo.MongoReading.RawEntry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ColumnarCodecTest {
+
+    /** Bloque que codifica el consumer (consumer/.../db/ColumnarCodecTest lo verifica byte a byte). */
+    private static final Path VECTOR = Path.of("..", "testdata", "col1-block.hex");
+
+    @Test
+    void decodesSharedVector() throws IOException {
+        byte[] block = HexFormat.of().parseHex(Files.readString(VECTOR).strip());
+        List<RawEntry> entries = ColumnarCodec.decode(block);
+
+        long[] ts = {1_759_096_500_000L, 1_759_096_505_000L, 1_759_096_510_000L, 1_759_096_515_020L, 1_759_096_619_990L};
+        double[] temperature = {21.5, 21.5, 21.75, 22.125, -3.0};
+        Integer[] humidity = {60, null, 61, 61, 59};
+        boolean[] state = {true, false, true, true, false};
+        String[] unit = {"C", "C", "F", "C", "C"};
+        long[] seq = {1, 2, 3, 1000, 1001};
+
+        assertEquals(ts.length, entries.size());
+        for (int i = 0; i < ts.length; i++) {
+            RawEntry e = entries.get(i);
+            assertEquals(ts[i], e.getTs());
+            assertEquals(ts[i] + 30 + i, e.getReceivedAt());
+            Map<String, Object> expected = new LinkedHashMap<>();
+            expected.put("temperature", temperature[i]);
+            if (humidity[i] != null) expected.put("humidity", humidity[i]);
+            expected.put("state", state[i]);
+            expected.put("unit", unit[i]);
+            expected.put("ts", ts[i]);
+            expected.put("seq", seq[i]);
+            // Map.equals compara también el tipo: Integer sigue siendo Integer y Long sigue siendo Long
+            assertEquals(expected, e.getPayload(), "entrada " + i);
+        }
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        assertThrows(IllegalArgumentException.class, () -> ColumnarCodec.decode(new byte[] {2, 0, 0, 0, 0}));
+    }
+}
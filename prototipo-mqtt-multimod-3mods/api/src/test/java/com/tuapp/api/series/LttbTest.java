@@ -0,0 +1,59 @@
+package com.tuapp.api.series;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LttbTest {
+
+    private record Point(long ts, double v) {}
+
+    private static List<Point> run(List<Point> points, long start, long end, int maxPoints) {
+        List<Point> out = new ArrayList<>();
+        Lttb<Point> lttb = new Lttb<>(start, end, maxPoints, Point::ts, Point::v, out::add);
+        points.forEach(lttb::add);
+        lttb.finish();
+        return out;
+    }
+
+    @Test
+    void fewerPointsThanWindowsPassThrough() {
+        List<Point> points = List.of(new Point(0, 1), new Point(10, 2), new Point(20, 3), new Point(30, 4), new Point(40, 5));
+        assertEquals(points, run(points, 0, 40, 100));
+    }
+
+    @Test
+    void reducesToMaxPointsKeepingEndsAndOrder() {
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) points.add(new Point(i, Math.sin(i / 100.0)));
+        List<Point> out = run(points, 0, 9_999, 50);
+
+        assertTrue(out.size() <= 50, "salieron " + out.size());
+        assertTrue(out.size() >= 40, "salieron " + out.size());
+        assertEquals(points.get(0), out.get(0));
+        assertEquals(points.get(points.size() - 1), out.get(out.size() - 1));
+        for (int i = 1; i < out.size(); i++) assertTrue(out.get(i).ts() > out.get(i - 1).ts());
+    }
+
+    @Test
+    void keepsSpike() {
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) points.add(new Point(i, i == 537 ? 100 : 0));
+        assertTrue(run(points, 0, 999, 10).contains(new Point(537, 100)));
+    }
+
+    @Test
+    void emptyInputEmitsNothing() {
+        assertTrue(run(List.of(), 0, 100, 10).isEmpty());
+    }
+
+    @Test
+    void rejectsTooFewPoints() {
+        assertThrows(IllegalArgumentException.class, () -> new Lttb<Point>(0, 1, 2, Point::ts, Point::v, p -> { }));
+    }
+}
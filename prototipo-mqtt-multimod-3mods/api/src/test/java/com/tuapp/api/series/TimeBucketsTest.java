@@ -0,0 +1,43 @@
+package com.tuapp.api.series;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TimeBucketsTest {
+
+    @Test
+    void parseSpanUnits() {
+        assertEquals(30_000L, TimeBuckets.parseSpan("30s"));
+        assertEquals(300_000L, TimeBuckets.parseSpan("5m"));
+        assertEquals(3_600_000L, TimeBuckets.parseSpan("1H"));
+        assertEquals(86_400_000L, TimeBuckets.parseSpan("1d"));
+        assertEquals(250L, TimeBuckets.parseSpan("250"));
+    }
+
+    @Test
+    void parseSpanRejectsInvalidAndOverflow() {
+        assertThrows(IllegalArgumentException.class, () -> TimeBuckets.parseSpan(""));
+        assertThrows(IllegalArgumentException.class, () -> TimeBuckets.parseSpan("0m"));
+        assertThrows(IllegalArgumentException.class, () -> TimeBuckets.parseSpan("-5s"));
+        assertThrows(IllegalArgumentException.class, () -> TimeBuckets.parseSpan("xm"));
+        assertThrows(IllegalArgumentException.class, () -> TimeBuckets.parseSpan("9223372036854775807d"));
+    }
+
+    @Test
+    void aggregatesPerAlignedWindow() {
+        TimeBuckets buckets = new TimeBuckets(1000);
+        buckets.add(2500, 4);
+        buckets.add(100, 1);
+        buckets.add(900, 3);
+        buckets.add(-1, 7); // floorDiv: cae en [-1000, 0)
+        List<TimeBuckets.Bucket> out = buckets.result();
+        assertEquals(List.of(
+                new TimeBuckets.Bucket(-1000, 0, 7, 7, 7, 1),
+                new TimeBuckets.Bucket(0, 1000, 2, 1, 3, 2),
+                new TimeBuckets.Bucket(2000, 3000, 4, 4, 4, 1)), out);
+    }
+}
@@ -1,34 +1,208 @@
 package com.tuapp.consumer.app;
 
 import com.tuapp.consumer.config.Env;
+import com.tuapp.consumer.config.MongoEnv;
+import com.tuapp.consumer.db.BucketCompactor;
+import com.tuapp.consumer.db.EnergyAccumulator;
+import com.tuapp.consumer.db.MongoBatchWriter;
 import com.tuapp.consumer.db.MongoService;
+import com.tuapp.consumer.db.RollupAggregator;
+import com.tuapp.consumer.db.TopicAppender;
+import com.tuapp.consumer.metrics.MetricsServer;
+import com.tuapp.consumer.mqtt.MqttCommandPublisher;
 import com.tuapp.consumer.mqtt.MqttSubscriber;
+import com.tuapp.consumer.mqtt.MqttV5Subscriber;
+import com.tuapp.consumer.pipeline.AnomalyDetector;
+import com.tuapp.consumer.pipeline.BackpressurePolicy;
+import com.tuapp.consumer.pipeline.DeadbandFilter;
+import com.tuapp.consumer.pipeline.DedupFilter;
+import com.tuapp.consumer.pipeline.IngestStage;
+import com.tuapp.consumer.pipeline.MessageProcessor;
+import com.tuapp.consumer.pipeline.ShardedIngestPipeline;
+import com.tuapp.consumer.presence.PresenceEmitter;
+import com.tuapp.consumer.presence.PresenceTracker;
 import com.tuapp.consumer.service.DecisionService;
-import org.eclipse.paho.client.mqttv3.MqttException;
+import com.tuapp.consumer.service.RuleSet;
+import com.tuapp.consumer.sink.MqttRepublishSink;
+import com.tuapp.consumer.sink.QueuedSink;
+import com.tuapp.consumer.sink.ReadingSink;
+import com.tuapp.consumer.sink.RollingFileSink;
+import com.tuapp.consumer.sink.SinkFanout;
+import com.tuapp.consumer.spool.SpoolJournal;
+import com.tuapp.consumer.spool.SpoolReplayer;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 public class ConsumerApplication {
-    public static void main(String[] args) throws MqttException, InterruptedException {
+    public static void main(String[] args) throws Exception {
         Env env = Env.fromEnv();
         System.out.printf("[consumer] broker=%s:%d setpoint=%.1f%n",
                 env.host(), env.port(), env.setpoint());
 
-        // Servicio de reglas/decisiones (lo dejamos listo, aunque no lo usemos aún)
-        DecisionService decision = new DecisionService(env.setpoint());
+        // Más de una réplica sin suscripción compartida duplicaría cada escritura
+        if (env.consumerInstances() > 1 && (env.mqttVersion() < 5 || env.shareGroup().isBlank())) {
+            throw new IllegalStateException("CONSUMER_INSTANCES=" + env.consumerInstances()
+                    + " requiere MQTT_VERSION=5 y MQTT_SHARE_GROUP");
+        }
+        // Con $share el broker reparte mensaje a mensaje: cada réplica ve solo una parte de las lecturas de cada topic
+        if (env.consumerInstances() > 1) {
+            if (MongoEnv.energyEnabled()) {
+                // Cada réplica integraría su parte en la misma serie acumulada: cumWh dejaría de ser monótono
+                throw new IllegalStateException("ENERGY_ENABLED=true requiere CONSUMER_INSTANCES=1 (estado por switch en memoria)");
+            }
+            System.err.printf("[consumer] CONSUMER_INSTANCES=%d: deduplicación, banda muerta, anomalías y presencia"
+                    + " ven solo la parte de cada topic que reparte el broker (estado por réplica)%n", env.consumerInstances());
+        }
+
+        // Métricas Prometheus en http://<host>:METRICS_PORT/metrics
+        MetricsServer metrics = env.metricsPort() > 0 ? new MetricsServer(env.metricsPort()) : null;
+        if (metrics != null) System.out.printf("[consumer] métricas en :%d/metrics%n", env.metricsPort());
+
+        // Motor de reglas por habitación; publica comandos en switches/<room>/<sufijo>
+        MqttCommandPublisher commands = env.rulesEnabled() ? new MqttCommandPublisher(env) : null;
+        RuleSet rules = RuleSet.parse(env.rules(), env.setpoint());
+        DecisionService decision = new DecisionService(env.setpoint(), rules, commands, env.topicOutdoor(),
+                env.rulesCommandSuffix(), env.rulesResendMs(), env.rulesBudgetMs());
+        System.out.printf("[consumer] reglas: %d (%s) publicar=%s%n", rules.size(), env.rules(), env.rulesEnabled());
 
         // Servicio Mongo (try-with-resources asegura cierre)
         try (MongoService mongo = new MongoService()) {
 
-            // Subscriber: ahora solo formato NUEVO + consolidación por topic
-            MqttSubscriber subscriber = new MqttSubscriber(env, decision, mongo);
-            subscriber.start();
+            // Sinks secundarios (cola e hilo propios cada uno) además del destino Mongo
+            List<QueuedSink> sinks = new ArrayList<>();
+            for (String name : env.sinks().split(",")) {
+                ReadingSink sink = switch (name.trim().toLowerCase(Locale.ROOT)) {
+                    case "" -> null;
+                    case "file" -> new RollingFileSink(Path.of(env.sinkFileDir()), env.sinkFileMaxBytes(), env.sinkFileKeep());
+                    case "mqtt" -> new MqttRepublishSink(new MqttCommandPublisher(env), env.sinkMqttPrefix());
+                    default -> throw new IllegalArgumentException("sink desconocido en SINKS: " + name);
+                };
+                if (sink != null) sinks.add(new QueuedSink(sink, env.sinkQueueCapacity(), env.sinkBatchSize(), env.sinkFlushMs()));
+            }
+
+            // Buckets cerrados -> bloques columnares
+            BucketCompactor compactor = null;
+            if ("columnar".equalsIgnoreCase(MongoEnv.bucketEncoding())) {
+                if (!mongo.bucketed()) {
+                    throw new IllegalStateException("MONGO_BUCKET_ENCODING=columnar requiere MONGO_STORAGE_MODE=bucket");
+                }
+                compactor = new BucketCompactor(mongo.collection(MongoEnv.bucketCollection()),
+                        MongoEnv.compactIntervalMs(), MongoEnv.compactGraceMs());
+                System.out.printf("[consumer] buckets columnares: sellado cada %d ms, gracia %d ms%n",
+                        MongoEnv.compactIntervalMs(), MongoEnv.compactGraceMs());
+            }
+
+            // Escritura directa (un updateOne por mensaje), por lotes (bulkWrite) o vía spool local
+            MongoBatchWriter batch = null;
+            SpoolJournal spool = null;
+            SpoolReplayer replayer = null;
+            TopicAppender store = mongo;
+            if ("batch".equalsIgnoreCase(MongoEnv.writeMode())) {
+                // Con acks manuales un lote fallido se reintenta: el ack solo sale después de escribir
+                boolean manualAcks = env.mqttManualAcks();
+                batch = new MongoBatchWriter(mongo,
+                        MongoEnv.batchSize(), MongoEnv.batchFlushMs(), MongoEnv.batchReportMs(), manualAcks);
+                store = batch;
+                System.out.printf("[consumer] escritura por lotes: size=%d flushMs=%d%n",
+                        MongoEnv.batchSize(), MongoEnv.batchFlushMs());
+            } else if ("spool".equalsIgnoreCase(MongoEnv.writeMode())) {
+                spool = new SpoolJournal(Path.of(MongoEnv.spoolDir()), MongoEnv.spoolSegmentBytes(),
+                        MongoEnv.spoolMaxSegments(), MongoEnv.spoolSpareSegments());
+                replayer = new SpoolReplayer(spool, mongo, MongoEnv.batchSize(), MongoEnv.batchFlushMs(),
+                        MongoEnv.spoolForceMs(), MongoEnv.batchReportMs());
+                store = spool;
+                System.out.printf("[consumer] escritura vía spool: dir=%s segmento=%d bytes%n",
+                        MongoEnv.spoolDir(), MongoEnv.spoolSegmentBytes());
+            }
+
+            SinkFanout fanout = null;
+            if (!sinks.isEmpty()) {
+                fanout = new SinkFanout(store, sinks);
+                store = fanout;
+                System.out.printf("[consumer] sinks secundarios: %s%n", sinks.stream().map(QueuedSink::name).toList());
+            }
+
+            // Parse + dedup + persistencia; con INGEST_SHARDS > 0 corre en los workers del pipeline
+            DedupFilter dedup = env.dedupWindow() > 0 ? new DedupFilter(env.dedupWindow(), env.dedupMaxTopics(), env.logIntervalMs()) : null;
+            RollupAggregator rollups = MongoEnv.rollupsEnabled()
+                    ? new RollupAggregator(mongo.collection(MongoEnv.rollupCollection()), MongoEnv.rollupFlushMs())
+                    : null;
+            EnergyAccumulator energy = MongoEnv.energyEnabled()
+                    ? new EnergyAccumulator(mongo.collection(MongoEnv.energyCollection()), MongoEnv.energySource(),
+                            MongoEnv.energyPointMs(), MongoEnv.energyMaxGapMs(), MongoEnv.energyFlushMs())
+                    : null;
+            DeadbandFilter deadband = DeadbandFilter.parse(env.deadband());
+            System.out.printf("[consumer] banda muerta: %s%n", deadband == null ? "off" : env.deadband());
+            // Presencia: rueda de tiempo + eventos online/offline a MQTT (retained) y Mongo
+            PresenceEmitter presenceEmitter = null;
+            PresenceTracker presence = null;
+            if (env.presenceEnabled()) {
+                presenceEmitter = new PresenceEmitter(new MqttCommandPublisher(env), env.presenceStatusPrefix(),
+                        mongo.collection(MongoEnv.presenceCollection()), mongo.collection(MongoEnv.presenceEventsCollection()));
+                presence = new PresenceTracker("device".equalsIgnoreCase(env.presenceKey()), env.presenceWheelSlots(),
+                        env.presenceTickMs(), env.presenceInitialTimeoutMs(), env.presenceMinTimeoutMs(),
+                        env.presenceIntervalFactor(), presenceEmitter);
+                System.out.printf("[consumer] presencia: clave=%s tick=%d ms slots=%d estado en %s/<clave>%n",
+                        env.presenceKey(), env.presenceTickMs(), env.presenceWheelSlots(), env.presenceStatusPrefix());
+            }
+            // Anomalías: alertas en alerts/<topic> con un cliente MQTT propio
+            boolean anomalyOn = !env.anomaly().isBlank() && !"off".equalsIgnoreCase(env.anomaly().trim());
+            MqttCommandPublisher alerts = anomalyOn ? new MqttCommandPublisher(env) : null;
+            AnomalyDetector anomalies = AnomalyDetector.parse(env.anomaly(), alerts, env.anomalyAlertPrefix());
+            System.out.printf("[consumer] anomalías: %s%n", anomalies == null ? "off" : env.anomaly());
+            IngestStage ingest = new MessageProcessor(decision, store, dedup, rollups, energy, deadband, presence, anomalies,
+                    env.logIntervalMs());
+            ShardedIngestPipeline pipeline = null;
+            if (env.ingestShards() > 0) {
+                BackpressurePolicy policy = BackpressurePolicy.parse(env.ingestBackpressure());
+                pipeline = new ShardedIngestPipeline(ingest, env.ingestShards(), env.ingestQueueCapacity(),
+                        policy, Path.of(env.ingestSpillDir()), env.ingestVirtualThreads(), env.ingestReportMs());
+                ingest = pipeline;
+                System.out.printf("[consumer] pipeline: shards=%d capacity=%d backpressure=%s%n",
+                        env.ingestShards(), env.ingestQueueCapacity(), policy);
+            }
+
+            // Subscriber: ahora solo formato NUEVO + consolidación por topic (v3, o v5 con $share)
+            if (env.mqttVersion() >= 5) {
+                new MqttV5Subscriber(env, ingest).start();
+            } else {
+                new MqttSubscriber(env, ingest).start();
+            }
 
             System.out.println("[consumer] listo. suscripto a sensors/+/+ y switches/+/+. esperando mensajes…");
 
             // Hook de cierre ordenado (por si recibís SIGTERM en Docker, etc.)
+            final MongoBatchWriter batchToClose = batch;
+            final ShardedIngestPipeline pipelineToClose = pipeline;
+            final SpoolJournal spoolToClose = spool;
+            final SpoolReplayer replayerToClose = replayer;
+            final RollupAggregator rollupsToClose = rollups;
+            final EnergyAccumulator energyToClose = energy;
+            final BucketCompactor compactorToClose = compactor;
+            final SinkFanout fanoutToClose = fanout;
+            final PresenceTracker presenceToClose = presence;
+            final PresenceEmitter presenceEmitterToClose = presenceEmitter;
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                // Orden: vaciar colas del pipeline, después el lote pendiente / spool, al final el cliente Mongo
+                if (pipelineToClose != null) pipelineToClose.close();
+                if (fanoutToClose != null) fanoutToClose.close();
+                if (presenceToClose != null) presenceToClose.close();
+                if (presenceEmitterToClose != null) presenceEmitterToClose.close();
+                if (batchToClose != null) batchToClose.close();
+                if (replayerToClose != null) replayerToClose.close();
+                if (rollupsToClose != null) rollupsToClose.close();
+                if (energyToClose != null) energyToClose.close();
+                if (compactorToClose != null) compactorToClose.close();
+                if (spoolToClose != null) spoolToClose.close();
                 try {
                     mongo.close();
                 } catch (Exception ignored) {}
+                if (commands != null) commands.close();
+                if (alerts != null) alerts.close();
+                if (metrics != null) metrics.close();
                 System.out.println("[consumer] shutdown completo.");
             }));
 
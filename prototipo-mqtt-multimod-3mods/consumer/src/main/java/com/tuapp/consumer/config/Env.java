@@ -1,5 +1,8 @@
 package com.tuapp.consumer.config;
 
+import com.tuapp.consumer.pipeline.AnomalyDetector;
+import com.tuapp.consumer.service.RuleSet;
+
 public record Env(String host, int port, String topicOutdoor, String topicIndoor, double setpoint) {
     public static Env fromEnv() {
         String host = get("BROKER_HOST", "broker-mqtt");
@@ -14,4 +17,76 @@ public record Env(String host, int port, String topicOutdoor, String topicIndoor
         return (v == null || v.isBlank()) ? d : v;
     }
     public String brokerUrl() { return "tcp://" + host + ":" + port; }
+
+    // MQTT: versión 3 (default) o 5; con 5 y MQTT_SHARE_GROUP se usa $share/<grupo>/... para repartir carga entre réplicas
+    public int mqttVersion()            { return Integer.parseInt(get("MQTT_VERSION", "3")); }
+    public String shareGroup()          { return get("MQTT_SHARE_GROUP", ""); }
+    public int consumerInstances()      { return Integer.parseInt(get("CONSUMER_INSTANCES", "1")); }
+    public String consumerInstanceId()  { return get("CONSUMER_INSTANCE_ID", get("HOSTNAME", "local")); }
+
+    // PUBACK después de persistir (v3 y v5) y ventana de mensajes sin confirmar; Receive Maximum y expiración de sesión solo v5
+    public boolean mqttManualAcks()     { return Boolean.parseBoolean(get("MQTT_MANUAL_ACKS", "true")); }
+    public int mqttMaxInflight()        { return Integer.parseInt(get("MQTT_MAX_INFLIGHT", "1000")); }
+    public int mqttReceiveMaximum()     { return Integer.parseInt(get("MQTT_RECEIVE_MAXIMUM", "1000")); }
+    public long mqttSessionExpirySeconds() { return Long.parseLong(get("MQTT_SESSION_EXPIRY_S", "3600")); }
+
+    /** Filtros de suscripción, con prefijo $share/<grupo>/ si corresponde. */
+    public String[] subscriptionTopics() {
+        String[] base = {"sensors/+/+", "switches/+/+"};
+        String group = shareGroup();
+        if (mqttVersion() < 5 || group.isBlank()) return base;
+        String[] shared = new String[base.length];
+        for (int i = 0; i < base.length; i++) shared[i] = "$share/" + group + "/" + base[i];
+        return shared;
+    }
+
+    // Observabilidad: puerto de /metrics (0 = deshabilitado) e intervalo mínimo entre logs por mensaje (-1 = sin logs)
+    public int metricsPort()            { return Integer.parseInt(get("METRICS_PORT", "9464")); }
+    public long logIntervalMs()         { return Long.parseLong(get("LOG_INTERVAL_MS", "5000")); }
+
+    // Motor de reglas (DSL en RuleSet); los comandos van a switches/<room>/<RULES_COMMAND_SUFFIX>
+    public boolean rulesEnabled()       { return Boolean.parseBoolean(get("RULES_ENABLED", "false")); }
+    public String rules()               { return get("RULES", RuleSet.DEFAULT); }
+    public String rulesCommandSuffix()  { return get("RULES_COMMAND_SUFFIX", "set"); }
+    public long rulesResendMs()         { return Long.parseLong(get("RULES_RESEND_MS", "30000")); }
+    public long rulesBudgetMs()         { return Long.parseLong(get("RULES_BUDGET_MS", "50")); }
+
+    // Deduplicación de redeliveries QoS 1 (DEDUP_WINDOW=0 la desactiva)
+    public int dedupWindow()            { return Integer.parseInt(get("DEDUP_WINDOW", "256")); }
+    public int dedupMaxTopics()         { return Integer.parseInt(get("DEDUP_MAX_TOPICS", "5000")); }
+
+    // Banda muerta por patrón de topic antes de persistir (formato en DeadbandFilter); por defecto desactivada
+    public String deadband()            { return get("DEADBAND", "off"); }
+
+    // Sinks secundarios además de Mongo: SINKS=file,mqtt (vacío = ninguno)
+    public String sinks()               { return get("SINKS", ""); }
+    public int sinkQueueCapacity()      { return Integer.parseInt(get("SINK_QUEUE_CAPACITY", "10000")); }
+    public int sinkBatchSize()          { return Integer.parseInt(get("SINK_BATCH_SIZE", "500")); }
+    public long sinkFlushMs()           { return Long.parseLong(get("SINK_FLUSH_MS", "200")); }
+    public String sinkFileDir()         { return get("SINK_FILE_DIR", "/var/lib/consumer/sink"); }
+    public long sinkFileMaxBytes()      { return Long.parseLong(get("SINK_FILE_MAX_BYTES", "67108864")); }
+    public int sinkFileKeep()           { return Integer.parseInt(get("SINK_FILE_KEEP", "10")); }
+    public String sinkMqttPrefix()      { return get("SINK_MQTT_PREFIX", "normalized"); }
+
+    // Anomalías en línea (AnomalyDetector); alertas en <ANOMALY_ALERT_PREFIX>/<topic>
+    public String anomaly()              { return get("ANOMALY", AnomalyDetector.DEFAULT); }
+    public String anomalyAlertPrefix()   { return get("ANOMALY_ALERT_PREFIX", "alerts"); }
+
+    // Presencia: vencimiento = max(PRESENCE_MIN_TIMEOUT_MS, factor * intervalo promedio); estado en <prefix>/<clave>
+    public boolean presenceEnabled()     { return Boolean.parseBoolean(get("PRESENCE_ENABLED", "false")); }
+    public String presenceKey()          { return get("PRESENCE_KEY", "topic"); } // topic | device
+    public long presenceTickMs()         { return Long.parseLong(get("PRESENCE_TICK_MS", "1000")); }
+    public int presenceWheelSlots()      { return Integer.parseInt(get("PRESENCE_WHEEL_SLOTS", "4096")); }
+    public long presenceInitialTimeoutMs() { return Long.parseLong(get("PRESENCE_INITIAL_TIMEOUT_MS", "900000")); }
+    public long presenceMinTimeoutMs()   { return Long.parseLong(get("PRESENCE_MIN_TIMEOUT_MS", "60000")); }
+    public double presenceIntervalFactor() { return Double.parseDouble(get("PRESENCE_INTERVAL_FACTOR", "3")); }
+    public String presenceStatusPrefix() { return get("PRESENCE_STATUS_PREFIX", "status"); }
+
+    // Pipeline de ingesta (INGEST_SHARDS=0 procesa directo en el callback MQTT)
+    public int ingestShards()           { return Integer.parseInt(get("INGEST_SHARDS", "4")); }
+    public int ingestQueueCapacity()    { return Integer.parseInt(get("INGEST_QUEUE_CAPACITY", "10000")); }
+    public String ingestBackpressure()  { return get("INGEST_BACKPRESSURE", "block"); } // block | drop_oldest | spill
+    public String ingestSpillDir()      { return get("INGEST_SPILL_DIR", "/tmp/consumer-spill"); }
+    public boolean ingestVirtualThreads() { return Boolean.parseBoolean(get("INGEST_VIRTUAL_THREADS", "true")); }
+    public long ingestReportMs()        { return Long.parseLong(get("INGEST_REPORT_MS", "60000")); }
 }
@@ -11,4 +11,44 @@ public final class MongoEnv {
     public static String uri()        { return get("MONGO_URI", "mongodb://mongodb:27017"); }
     public static String db()         { return get("MONGO_DB", "iotdb"); }
     public static String collection() { return get("MONGO_COLLECTION", "readings"); }
+
+    // Layout: "topic" (un documento por topic con 'raws') o "bucket" (un documento por topic y ventana de tiempo)
+    public static String storageMode()      { return get("MONGO_STORAGE_MODE", "topic"); }
+    public static String bucketCollection() { return get("MONGO_BUCKET_COLLECTION", "readings_buckets"); }
+    public static long bucketSpanMs()       { return Long.parseLong(get("MONGO_BUCKET_SPAN_MS", "3600000")); }
+    // Encoding de buckets cerrados: "bson" (raws tal cual) o "columnar" (bloque binario col1, ver ColumnarCodec)
+    public static String bucketEncoding()   { return get("MONGO_BUCKET_ENCODING", "bson"); }
+    public static long compactIntervalMs()  { return Long.parseLong(get("COMPACT_INTERVAL_MS", "60000")); }
+    public static long compactGraceMs()     { return Long.parseLong(get("COMPACT_GRACE_MS", "300000")); }
+
+    // Rollups min/max/avg/count/last a 1m, 1h y 1d (ROLLUPS_ENABLED=false los desactiva)
+    public static boolean rollupsEnabled()  { return Boolean.parseBoolean(get("ROLLUPS_ENABLED", "true")); }
+    public static String rollupCollection() { return get("MONGO_ROLLUP_COLLECTION", "readings_rollups"); }
+    public static long rollupFlushMs()      { return Long.parseLong(get("ROLLUP_FLUSH_MS", "10000")); }
+
+    // Energía acumulada por switch (consumo en O(1) por rango); source power (integra W) o energy (medidor Wh)
+    public static boolean energyEnabled()    { return Boolean.parseBoolean(get("ENERGY_ENABLED", "true")); }
+    public static String energyCollection()  { return get("MONGO_ENERGY_COLLECTION", "energy_cumulative"); }
+    public static String energySource()      { return get("ENERGY_SOURCE", "power"); }
+    public static long energyPointMs()       { return Long.parseLong(get("ENERGY_POINT_MS", "300000")); }
+    public static long energyMaxGapMs()      { return Long.parseLong(get("ENERGY_MAX_GAP_MS", "900000")); }
+    public static long energyFlushMs()       { return Long.parseLong(get("ENERGY_FLUSH_MS", "10000")); }
+
+    // Presencia: estado actual por clave + historial de transiciones
+    public static String presenceCollection()        { return get("MONGO_PRESENCE_COLLECTION", "device_presence"); }
+    public static String presenceEventsCollection()  { return get("MONGO_PRESENCE_EVENTS_COLLECTION", "device_presence_events"); }
+
+    // Escritura: "single" (un updateOne por mensaje), "batch" (bulkWrite agrupado por topic)
+    // o "spool" (journal local mapeado en memoria + replayer por lotes hacia Mongo)
+    public static String writeMode()    { return get("MONGO_WRITE_MODE", "single"); }
+    public static int batchSize()       { return Integer.parseInt(get("MONGO_BATCH_SIZE", "500")); }
+    public static long batchFlushMs()   { return Long.parseLong(get("MONGO_BATCH_FLUSH_MS", "200")); }
+    public static long batchReportMs()  { return Long.parseLong(get("MONGO_BATCH_REPORT_MS", "60000")); }
+
+    // Spool (MONGO_WRITE_MODE=spool)
+    public static String spoolDir()         { return get("SPOOL_DIR", "/var/lib/consumer/spool"); }
+    public static int spoolSegmentBytes()   { return Integer.parseInt(get("SPOOL_SEGMENT_BYTES", "67108864")); }
+    public static int spoolMaxSegments()    { return Integer.parseInt(get("SPOOL_MAX_SEGMENTS", "64")); }
+    public static int spoolSpareSegments()  { return Integer.parseInt(get("SPOOL_SPARE_SEGMENTS", "2")); }
+    public static long spoolForceMs()       { return Long.parseLong(get("SPOOL_FORCE_MS", "1000")); }
 }
@@ -0,0 +1,120 @@
+package com.tuapp.consumer.db;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.result.UpdateResult;
+import com.tuapp.consumer.metrics.Metrics;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.Binary;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
+
+/**
+ * Sella los buckets cerrados en formato columnar (MONGO_BUCKET_ENCODING=columnar, solo modo "bucket"):
+ * - Cada intervalMs busca buckets con bucketEnd anterior a (ahora - graceMs) que todavía tengan 'raws'.
+ * - Junta el bloque existente (si lo hay) con 'raws', ordena por ts, codifica con ColumnarCodec
+ *   y reemplaza 'raws' por 'block' (Binary) + encoding "col1".
+ * - El update se condiciona al 'count' leído: si entró una lectura tardía en el medio, no se toca y
+ *   se reintenta en la próxima vuelta. Las lecturas tardías que llegan después del sellado quedan en
+ *   'raws' junto al bloque; la API lee ambos y el bucket se vuelve a sellar.
+ */
+public class BucketCompactor implements AutoCloseable {
+    private static final int MAX_PER_ROUND = 200;
+
+    private final MongoCollection<Document> buckets;
+    private final long intervalMs;
+    private final long graceMs;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    public BucketCompactor(MongoCollection<Document> buckets, long intervalMs, long graceMs) {
+        this.buckets = buckets;
+        this.intervalMs = intervalMs;
+        this.graceMs = graceMs;
+        this.buckets.createIndex(Indexes.ascending("bucketEnd"), new IndexOptions().name("idx_bucketEnd"));
+
+        this.worker = new Thread(this::runLoop, "bucket-compactor");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    private void runLoop() {
+        while (running) {
+            try {
+                int sealed = compactRound(System.currentTimeMillis() - graceMs);
+                if (sealed < MAX_PER_ROUND) Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                System.err.printf("[consumer] compactor: error err=%s%n", e.getMessage());
+                try {
+                    Thread.sleep(intervalMs);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Sella hasta MAX_PER_ROUND buckets cerrados antes de 'before'; devuelve cuántos procesó. */
+    int compactRound(long before) {
+        int n = 0;
+        for (Document b : buckets.find(and(lt("bucketEnd", before), exists("raws.0"), ne("uncompressible", true)))
+                .limit(MAX_PER_ROUND)) {
+            if (!running) break;
+            seal(b);
+            n++;
+        }
+        return n;
+    }
+
+    private void seal(Document b) {
+        List<Document> entries = new ArrayList<>();
+        Object block = b.get("block");
+        if (block instanceof Binary bin) entries.addAll(ColumnarCodec.decode(bin.getData()));
+        entries.addAll(b.getList("raws", Document.class));
+        entries.sort(Comparator.comparingLong(e -> ((Number) e.get("ts")).longValue()));
+
+        Object id = b.get("_id");
+        Object count = b.get("count");
+        byte[] encoded = ColumnarCodec.encode(entries);
+        if (encoded == null) {
+            // Payload con tipos que el codec no cubre: queda en BSON
+            buckets.updateOne(and(eq("_id", id), eq("count", count)), set("uncompressible", true));
+            return;
+        }
+
+        UpdateResult res = buckets.updateOne(
+                and(eq("_id", id), eq("count", count)),
+                combine(set("block", new Binary(encoded)), set("encoding", ColumnarCodec.ENCODING), unset("raws")));
+        if (res.getModifiedCount() == 1) {
+            long before = new RawBsonDocument(b, new DocumentCodec()).getByteBuffer().remaining();
+            Metrics.bucketSealed(entries.size(), before, encoded.length);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.tuapp.consumer.db;
+
+import org.bson.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codificación columnar "col1" de un bloque de entradas {ts, receivedAt, payload}, en un único flujo de bits:
+ * - ts y receivedAt: primer valor de 64 bits y después delta-of-delta con prefijos de largo variable (Gorilla).
+ * - Una columna por clave del payload (en orden de aparición) con bitmap de presencia y tipo:
+ *   D = double con XOR (Gorilla), L/I = enteros con delta-of-delta, B = 1 bit, S = diccionario,
+ *   T = long igual al ts de la entrada (el "ts" que repite el payload no ocupa nada).
+ * Solo se codifican payloads planos con esos tipos; si no, encode() devuelve null y el bucket queda en BSON.
+ * Lo mismo si no entra en los campos de 16 bits del formato: más de 65535 columnas o una clave / string de más
+ * de 65535 bytes UTF-8.
+ * El decoder equivalente está en la API (com.tuapp.api.mongo.ColumnarCodec): cambiar ambos a la vez.
+ */
+public final class ColumnarCodec {
+    public static final String ENCODING = "col1";
+    private static final int VERSION = 1;
+    // Largo de strings y cantidad de columnas van en 16 bits
+    private static final int MAX_U16 = 0xFFFF;
+
+    private ColumnarCodec() {}
+
+    /** Bytes del bloque, o null si algún valor no es codificable. */
+    public static byte[] encode(List<Document> entries) {
+        int n = entries.size();
+        long[] ts = new long[n];
+        long[] rx = new long[n];
+        Map<String, Object[]> columns = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            Document e = entries.get(i);
+            ts[i] = ((Number) e.get("ts")).longValue();
+            rx[i] = ((Number) e.get("receivedAt")).longValue();
+            Document payload = (Document) e.get("payload");
+            if (payload == null) continue;
+            for (Map.Entry<String, Object> f : payload.entrySet()) {
+                columns.computeIfAbsent(f.getKey(), k -> new Object[n])[i] = f.getValue();
+            }
+        }
+
+        if (columns.size() > MAX_U16) return null;
+
+        BitWriter w = new BitWriter(n * 8 + 64);
+        w.write(VERSION, 8);
+        w.write(n, 32);
+        writeLongs(w, ts);
+        writeLongs(w, rx);
+        w.write(columns.size(), 16);
+        for (Map.Entry<String, Object[]> c : columns.entrySet()) {
+            char type = typeOf(c.getValue(), ts);
+            if (type == 0 || !writeString(w, c.getKey())) return null;
+            w.write(type, 8);
+            if (!writeColumn(w, type, c.getValue(), ts)) return null;
+        }
+        return w.toByteArray();
+    }
+
+    /** Entradas {ts, receivedAt, payload} del bloque, en el orden en que se codificaron. */
+    public static List<Document> decode(byte[] block) {
+        BitReader r = new BitReader(block);
+        int version = (int) r.read(8);
+        if (version != VERSION) throw new IllegalArgumentException("versión de bloque desconocida: " + version);
+        int n = (int) r.read(32);
+        long[] ts = readLongs(r, n);
+        long[] rx = readLongs(r, n);
+        List<Document> payloads = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) payloads.add(new Document());
+        int cols = (int) r.read(16);
+        for (int c = 0; c < cols; c++) {
+            String key = readString(r);
+            char type = (char) r.read(8);
+            Object[] values = readColumn(r, type, n, ts);
+            for (int i = 0; i < n; i++) {
+                if (values[i] != null) payloads.get(i).append(key, values[i]);
+            }
+        }
+        List<Document> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            out.add(new Document("ts", ts[i]).append("receivedAt", rx[i]).append("payload", payloads.get(i)));
+        }
+        return out;
+    }
+
+    private static char typeOf(Object[] values, long[] ts) {
+        char type = 0;
+        boolean sameAsTs = true;
+        for (int i = 0; i < values.length; i++) {
+            Object v = values[i];
+            if (v == null) continue;
+            char t;
+            if (v instanceof Double) t = 'D';
+            else if (v instanceof Long l) { t = 'L'; sameAsTs &= l == ts[i]; }
+            else if (v instanceof Integer) t = 'I';
+            else if (v instanceof Boolean) t = 'B';
+            else if (v instanceof String) t = 'S';
+            else return 0;
+            if (type != 0 && type != t) return 0; // tipos mezclados en la columna
+            type = t;
+        }
+        if (type == 'L' && sameAsTs) return 'T';
+        return type;
+    }
+
+    // ---- Columnas ----
+
+    /** false si un string del diccionario no entra en 16 bits. */
+    private static boolean writeColumn(BitWriter w, char type, Object[] values, long[] ts) {
+        int n = values.length;
+        boolean all = true;
+        for (Object v : values) all &= v != null;
+        w.write(all ? 1 : 0, 1);
+        if (!all) for (Object v : values) w.write(v != null ? 1 : 0, 1);
+
+        switch (type) {
+            case 'T' -> { }
+            case 'B' -> { for (Object v : values) if (v != null) w.write((Boolean) v ? 1 : 0, 1); }
+            case 'L', 'I' -> writeLongs(w, toLongs(values));
+            case 'D' -> {
+                XorWriter x = new XorWriter(w);
+                for (Object v : values) if (v != null) x.write((Double) v);
+            }
+            case 'S' -> {
+                Map<String, Integer> dict = new LinkedHashMap<>();
+                for (Object v : values) if (v != null) dict.putIfAbsent((String) v, dict.size());
+                w.write(dict.size(), 32);
+                for (String s : dict.keySet()) if (!writeString(w, s)) return false;
+                int bits = bitsFor(dict.size());
+                for (Object v : values) if (v != null) w.write(dict.get(v), bits);
+            }
+            default -> throw new IllegalStateException("tipo " + type);
+        }
+        return true;
+    }
+
+    private static Object[] readColumn(BitReader r, char type, int n, long[] ts) {
+        boolean[] present = new boolean[n];
+        if (r.read(1) == 1) {
+            Arrays.fill(present, true);
+        } else {
+            for (int i = 0; i < n; i++) present[i] = r.read(1) == 1;
+        }
+        int count = 0;
+        for (boolean p : present) if (p) count++;
+
+        Object[] out = new Object[n];
+        switch (type) {
+            case 'T' -> { for (int i = 0; i < n; i++) if (present[i]) out[i] = ts[i]; }
+            case 'B' -> { for (int i = 0; i < n; i++) if (present[i]) out[i] = r.read(1) == 1; }
+            case 'L', 'I' -> {
+                long[] vals = readLongs(r, count);
+                for (int i = 0, j = 0; i < n; i++) {
+                    if (present[i]) out[i] = type == 'I' ? (Object) (int) vals[j++] : (Object) vals[j++];
+                }
+            }
+            case 'D' -> {
+                XorReader x = new XorReader(r);
+                for (int i = 0; i < n; i++) if (present[i]) out[i] = x.read();
+            }
+            case 'S' -> {
+                int size = (int) r.read(32);
+                String[] dict = new String[size];
+                for (int i = 0; i < size; i++) dict[i] = readString(r);
+                int bits = bitsFor(size);
+                for (int i = 0; i < n; i++) if (present[i]) out[i] = dict[(int) r.read(bits)];
+            }
+            default -> throw new IllegalArgumentException("tipo de columna desconocido: " + type);
+        }
+        return out;
+    }
+
+    private static long[] toLongs(Object[] values) {
+        long[] out = new long[values.length];
+        int j = 0;
+        for (Object v : values) if (v != null) out[j++] = ((Number) v).longValue();
+        return Arrays.copyOf(out, j);
+    }
+
+    private static int bitsFor(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /** false (sin escribir nada) si el string pasa de MAX_U16 bytes. */
+    private static boolean writeString(BitWriter w, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        if (b.length > MAX_U16) return false;
+        w.write(b.length, 16);
+        for (byte x : b) w.write(x & 0xff, 8);
+        return true;
+    }
+
+    private static String readString(BitReader r) {
+        byte[] b = new byte[(int) r.read(16)];
+        for (int i = 0; i < b.length; i++) b[i] = (byte) r.read(8);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // ---- Enteros: delta-of-delta ----
+
+    /** Primer valor en 64 bits; después dod con prefijo '0' | '10'+7 | '110'+9 | '1110'+12 | '1111'+64 bits. */
+    private static void writeLongs(BitWriter w, long[] v) {
+        long prev = 0, prevDelta = 0;
+        for (int i = 0; i < v.length; i++) {
+            if (i == 0) {
+                w.write(v[0], 64);
+            } else {
+                long delta = v[i] - prev;
+                long dod = delta - prevDelta;
+                if (dod == 0) w.write(0, 1);
+                else if (dod >= -63 && dod <= 64) { w.write(0b10, 2); w.write(dod + 63, 7); }
+                else if (dod >= -255 && dod <= 256) { w.write(0b110, 3); w.write(dod + 255, 9); }
+                else if (dod >= -2047 && dod <= 2048) { w.write(0b1110, 4); w.write(dod + 2047, 12); }
+                else { w.write(0b1111, 4); w.write(dod, 64); }
+                prevDelta = delta;
+            }
+            prev = v[i];
+        }
+    }
+
+    private static long[] readLongs(BitReader r, int n) {
+        long[] out = new long[n];
+        long prev = 0, prevDelta = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0) {
+                out[0] = r.read(64);
+            } else {
+                long dod;
+                if (r.read(1) == 0) dod = 0;
+                else if (r.read(1) == 0) dod = r.read(7) - 63;
+                else if (r.read(1) == 0) dod = r.read(9) - 255;
+                else if (r.read(1) == 0) dod = r.read(12) - 2047;
+                else dod = r.read(64);
+                long delta = prevDelta + dod;
+                out[i] = prev + delta;
+                prevDelta = delta;
+            }
+            prev = out[i];
+        }
+        return out;
+    }
+
+    // ---- Doubles: XOR (Gorilla) ----
+
+    private static final class XorWriter {
+        private final BitWriter w;
+        private long prev;
+        private int prevLeading = -1, prevTrailing;
+        private boolean first = true;
+
+        XorWriter(BitWriter w) { this.w = w; }
+
+        void write(double d) {
+            long bits = Double.doubleToRawLongBits(d);
+            if (first) {
+                w.write(bits, 64);
+                first = false;
+            } else {
+                long xor = bits ^ prev;
+                if (xor == 0) {
+                    w.write(0, 1);
+                } else {
+                    int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                    int trailing = Long.numberOfTrailingZeros(xor);
+                    w.write(1, 1);
+                    if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                        // Cabe en la ventana anterior
+                        w.write(0, 1);
+                        w.write(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+                    } else {
+                        int significant = 64 - leading - trailing;
+                        w.write(1, 1);
+                        w.write(leading, 5);
+                        w.write(significant - 1, 6);
+                        w.write(xor >>> trailing, significant);
+                        prevLeading = leading;
+                        prevTrailing = trailing;
+                    }
+                }
+            }
+            prev = bits;
+        }
+    }
+
+    private static final class XorReader {
+        private final BitReader r;
+        private long prev;
+        private int prevLeading, prevTrailing;
+        private boolean first = true;
+
+        XorReader(BitReader r) { this.r = r; }
+
+        double read() {
+            if (first) {
+                first = false;
+                prev = r.read(64);
+            } else if (r.read(1) == 1) {
+                if (r.read(1) == 1) {
+                    prevLeading = (int) r.read(5);
+                    int significant = (int) r.read(6) + 1;
+                    prevTrailing = 64 - prevLeading - significant;
+                }
+                long xor = r.read(64 - prevLeading - prevTrailing) << prevTrailing;
+                prev ^= xor;
+            }
+            return Double.longBitsToDouble(prev);
+        }
+    }
+
+    // ---- Flujo de bits (MSB primero) ----
+
+    private static final class BitWriter {
+        private byte[] buf;
+        private long bitPos;
+
+        BitWriter(int initialBytes) { this.buf = new byte[Math.max(16, initialBytes)]; }
+
+        void write(long value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                int byteIdx = (int) (bitPos >>> 3);
+                if (byteIdx >= buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                if (((value >>> i) & 1L) != 0) buf[byteIdx] |= (byte) (0x80 >>> (bitPos & 7));
+                bitPos++;
+            }
+        }
+
+        byte[] toByteArray() { return Arrays.copyOf(buf, (int) ((bitPos + 7) >>> 3)); }
+    }
+
+    private static final class BitReader {
+        private final byte[] buf;
+        private long bitPos;
+
+        BitReader(byte[] buf) { this.buf = buf; }
+
+        long read(int bits) {
+            long v = 0;
+            for (int i = 0; i < bits; i++) {
+                int b = buf[(int) (bitPos >>> 3)] >>> (7 - (bitPos & 7)) & 1;
+                v = (v << 1) | b;
+                bitPos++;
+            }
+            return v;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.tuapp.consumer.db;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.WriteModel;
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.model.SensorReading;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+
+/**
+ * Serie de energía acumulada por switch (clave "switches/&lt;room&gt;") para consultar consumo en O(1):
+ * - source=power: integra switches/+/power como escalón (la potencia vale hasta la próxima lectura), con cada
+ *   hueco acotado a maxGapMs para no inventar consumo de un equipo que dejó de reportar.
+ * - source=energy: usa switches/+/energy como medidor acumulado en Wh (si baja, se toma como reinicio del medidor).
+ * - Se guarda un punto {key, ts, cumWh, power} cuando cambia la potencia (o el medidor) o cada pointMs: entre puntos
+ *   la energía es cumWh + power × (t - ts), así que E(fin) - E(inicio) son dos búsquedas por índice y una resta.
+ * - Al ver una clave por primera vez retoma desde el último punto guardado (reinicio del consumer).
+ * - Los puntos se escriben por lotes cada flushMs (upsert por key + ts, idempotente).
+ */
+public class EnergyAccumulator implements AutoCloseable {
+
+    private static final double MS_PER_HOUR = 3_600_000.0;
+
+    /** Estado por switch; se modifica con el lock del propio objeto. */
+    private static final class Meter {
+        long lastTs = Long.MIN_VALUE;
+        double power;
+        double cumWh;
+        double meter = Double.NaN; // última lectura del medidor (source=energy)
+        long writtenTs = Long.MIN_VALUE;
+        double writtenPower = Double.NaN;
+    }
+
+    private final MongoCollection<Document> points;
+    private final boolean fromEnergy;
+    private final long pointMs;
+    private final long maxGapMs;
+    private final long flushMs;
+    private final ConcurrentHashMap<String, Meter> meters = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Document> pending = new ConcurrentLinkedQueue<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    public EnergyAccumulator(MongoCollection<Document> points, String source, long pointMs, long maxGapMs, long flushMs) {
+        if (!"power".equalsIgnoreCase(source) && !"energy".equalsIgnoreCase(source)) {
+            throw new IllegalArgumentException("ENERGY_SOURCE debe ser power o energy: " + source);
+        }
+        if (pointMs <= 0 || flushMs <= 0 || maxGapMs < pointMs) {
+            throw new IllegalArgumentException("ENERGY_POINT_MS y ENERGY_FLUSH_MS deben ser > 0 y ENERGY_MAX_GAP_MS >= ENERGY_POINT_MS");
+        }
+        this.points = points;
+        this.fromEnergy = "energy".equalsIgnoreCase(source);
+        this.pointMs = pointMs;
+        this.maxGapMs = maxGapMs;
+        this.flushMs = flushMs;
+        this.points.createIndex(Indexes.ascending("key", "ts"), new IndexOptions().name("uniq_key_ts").unique(true));
+        Metrics.gauge("consumer_energy_pending", "Puntos de energía acumulada sin volcar", pending::size);
+
+        this.flusher = new Thread(this::runLoop, "energy-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public void add(SensorReading r) {
+        if (!r.topic.startsWith("switches/")) return;
+        Double v = fromEnergy ? r.energy : r.power;
+        String suffix = fromEnergy ? "/energy" : "/power";
+        if (v == null || !r.topic.endsWith(suffix)) return;
+        String key = r.topic.substring(0, r.topic.length() - suffix.length());
+
+        Meter m = meters.get(key);
+        if (m == null) {
+            Meter loaded = load(key);
+            m = meters.putIfAbsent(key, loaded);
+            if (m == null) m = loaded;
+        }
+        long ts = r.ts;
+        synchronized (m) {
+            // Duplicado o fuera de orden: el escalón ya se integró con un ts posterior
+            if (ts <= m.lastTs) return;
+            boolean changed;
+            if (fromEnergy) {
+                double delta = Double.isNaN(m.meter) ? 0 : v - m.meter;
+                if (delta < 0) delta = v; // el medidor volvió a cero
+                m.cumWh += delta;
+                m.meter = v;
+                changed = delta != 0;
+            } else {
+                if (m.lastTs != Long.MIN_VALUE) m.cumWh += m.power * Math.min(ts - m.lastTs, maxGapMs) / MS_PER_HOUR;
+                m.power = v;
+                changed = v != m.writtenPower;
+            }
+            m.lastTs = ts;
+            if (changed || m.writtenTs == Long.MIN_VALUE || ts - m.writtenTs >= pointMs) {
+                m.writtenTs = ts;
+                m.writtenPower = m.power;
+                Document p = new Document("key", key).append("ts", ts)
+                        .append("cumWh", m.cumWh)
+                        .append("power", fromEnergy ? 0.0 : m.power);
+                if (fromEnergy) p.append("meter", m.meter);
+                pending.add(p);
+            }
+        }
+    }
+
+    /** Último punto guardado de la clave; si Mongo no responde arranca de cero (se loguea). */
+    private Meter load(String key) {
+        Meter m = new Meter();
+        try {
+            Document last = points.find(eq("key", key)).sort(Sorts.descending("ts")).limit(1).first();
+            if (last != null) {
+                m.lastTs = last.getLong("ts");
+                m.cumWh = last.get("cumWh", Number.class).doubleValue();
+                m.power = last.get("power", Number.class).doubleValue();
+                m.writtenTs = m.lastTs;
+                m.writtenPower = m.power;
+                Number meter = last.get("meter", Number.class);
+                if (meter != null) m.meter = meter.doubleValue();
+            }
+        } catch (Exception e) {
+            System.err.printf("[consumer] energía: no se pudo leer el último punto key=%s err=%s%n", key, e.getMessage());
+        }
+        return m;
+    }
+
+    private void runLoop() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(flushMs);
+            } catch (InterruptedException e) {
+                break;
+            }
+            flush();
+        }
+        flush();
+    }
+
+    void flush() {
+        List<Document> batch = new ArrayList<>();
+        Document p;
+        while ((p = pending.poll()) != null) batch.add(p);
+        if (batch.isEmpty()) return;
+
+        ReplaceOptions upsert = new ReplaceOptions().upsert(true);
+        List<WriteModel<Document>> models = new ArrayList<>(batch.size());
+        for (Document d : batch) {
+            models.add(new ReplaceOneModel<>(and(eq("key", d.getString("key")), eq("ts", d.getLong("ts"))), d, upsert));
+        }
+        long t0 = System.nanoTime();
+        try {
+            points.bulkWrite(models, new BulkWriteOptions().ordered(false));
+            Metrics.mongoPersist("energy", System.nanoTime() - t0, models.size());
+        } catch (Exception e) {
+            Metrics.mongoError("energy");
+            // Reencolar: el upsert por key + ts hace que reintentar sea seguro
+            pending.addAll(batch);
+            System.err.printf("[consumer] energía: error en bulkWrite puntos=%d err=%s%n", models.size(), e.getMessage());
+        }
+    }
+
+    /** Detiene el flusher y vuelca lo pendiente. */
+    @Override
+    public void close() {
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
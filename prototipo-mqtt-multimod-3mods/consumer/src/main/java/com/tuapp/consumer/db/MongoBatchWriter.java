@@ -0,0 +1,215 @@
+package com.tuapp.consumer.db;
+
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.model.SensorReading;
+import com.tuapp.consumer.pipeline.IngestStage;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Escritor por lotes:
+ * - appendByTopic solo encola (no bloquea el hilo de callback de Paho).
+ * - Un hilo "flusher" junta hasta batchSize entradas o espera como máximo flushMs
+ *   desde la primera, agrupa por topic y llama a MongoService.appendBatch (bulkWrite).
+ * - Lleva estadísticas de tamaño y latencia de cada flush y las reporta cada reportMs.
+ * - Cada entrada puede traer un onDurable (ack MQTT) que se llama recién cuando su bulkWrite terminó bien.
+ *   Con retryOnError un bulkWrite fallido se reintenta con backoff en vez de descartarse
+ *   (la ventana de acks frena al broker); el reintento reenvía solo los modelos que fallaron y es idempotente
+ *   (MongoService.BatchWrite).
+ * - La cola está acotada a QUEUE_BATCHES lotes: si Mongo no da abasto, appendByTopic bloquea y la contrapresión
+ *   llega a los shards del pipeline (BLOCK / DROP_OLDEST / SPILL) y de ahí al callback MQTT, en vez de crecer sin tope.
+ */
+public class MongoBatchWriter implements TopicAppender, AutoCloseable {
+
+    private static final long MAX_BACKOFF_MS = 5000;
+    // Capacidad de la cola en lotes de batchSize: uno en vuelo y el resto juntándose
+    private static final int QUEUE_BATCHES = 4;
+
+    private record Pending(SensorReading reading, Runnable onDurable) {}
+
+    private final MongoService mongo;
+    private final int batchSize;
+    private final long flushNanos;
+    private final long reportMs;
+    private final boolean retryOnError;
+
+    private final LinkedBlockingQueue<Pending> queue;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    // Estadísticas (acumuladas desde el arranque)
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedEntries = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong lostEntries = new AtomicLong();
+    private volatile int lastFlushSize;
+    private volatile long lastFlushMicros;
+    private volatile long maxFlushMicros; // máximo dentro de la ventana de reporte
+    private long lastReportAt = System.currentTimeMillis();
+
+    public MongoBatchWriter(MongoService mongo, int batchSize, long flushMs, long reportMs, boolean retryOnError) {
+        if (batchSize <= 0 || flushMs <= 0) {
+            throw new IllegalArgumentException("batchSize y flushMs deben ser > 0");
+        }
+        this.mongo = mongo;
+        this.batchSize = batchSize;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMs);
+        this.reportMs = reportMs;
+        this.retryOnError = retryOnError;
+        this.queue = new LinkedBlockingQueue<>(batchSize * QUEUE_BATCHES);
+
+        this.flusher = new Thread(this::runLoop, "mongo-batch-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+
+        Metrics.gauge("consumer_batch_pending", "Lecturas encoladas esperando bulkWrite", queue::size);
+        Metrics.gauge("consumer_batch_lost_entries", "Lecturas perdidas por bulkWrite fallido", lostEntries::get);
+    }
+
+    @Override
+    public void appendByTopic(SensorReading reading) {
+        appendByTopic(reading, null);
+    }
+
+    @Override
+    public void appendByTopic(SensorReading reading, Runnable onDurable) {
+        if (!running) throw new IllegalStateException("MongoBatchWriter cerrado");
+        try {
+            // Cola llena = Mongo atrasado: bloquea al worker del shard (contrapresión)
+            queue.put(new Pending(reading, onDurable));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrumpido esperando lugar en la cola del batch", e);
+        }
+    }
+
+    private void runLoop() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(flushNanos, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    fill(batch);
+                    flush(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // close() no interrumpe; si alguien lo hace, vaciamos lo que quede y salimos
+                queue.drainTo(batch);
+                flush(batch);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            maybeReport();
+        }
+    }
+
+    /** Completa el lote hasta batchSize o hasta que se cumpla flushMs desde la primera entrada. */
+    private void fill(List<Pending> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + flushNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            if (batch.size() >= batchSize) return;
+
+            long left = deadline - System.nanoTime();
+            if (left <= 0) return;
+            Pending next = queue.poll(left, TimeUnit.NANOSECONDS);
+            if (next == null) return;
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        if (batch.isEmpty()) return;
+
+        // LinkedHashMap: conserva el orden de llegada de los topics y de las entradas de cada uno
+        Map<String, List<Document>> byTopic = new LinkedHashMap<>();
+        for (Pending p : batch) {
+            byTopic.computeIfAbsent(p.reading().topic, t -> new ArrayList<>()).add(MongoService.rawEntry(p.reading()));
+        }
+
+        MongoService.BatchWrite write = mongo.prepareBatch(byTopic);
+        long backoff = 100;
+        while (true) {
+            long t0 = System.nanoTime();
+            try {
+                write.apply();
+                long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0);
+                flushes.incrementAndGet();
+                flushedEntries.addAndGet(batch.size());
+                lastFlushSize = batch.size();
+                lastFlushMicros = micros;
+                if (micros > maxFlushMicros) maxFlushMicros = micros;
+                for (Pending p : batch) {
+                    if (p.onDurable() != null) p.onDurable().run();
+                }
+                return;
+            } catch (Exception e) {
+                failedFlushes.incrementAndGet();
+                System.err.printf("[consumer] batch: error en bulkWrite size=%d topics=%d pendientes=%d err=%s%n",
+                        batch.size(), byTopic.size(), write.pending(), e.getMessage());
+            }
+            if (!retryOnError || !running) {
+                // Sin ack: con acks manuales se pide la reentrega al broker
+                lose(batch);
+                return;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                lose(batch);
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private void lose(List<Pending> batch) {
+        lostEntries.addAndGet(batch.size());
+        for (Pending p : batch) {
+            if (p.onDurable() != null) IngestStage.redeliver(p.onDurable());
+        }
+    }
+
+    private void maybeReport() {
+        long now = System.currentTimeMillis();
+        if (reportMs <= 0 || now - lastReportAt < reportMs) return;
+        lastReportAt = now;
+
+        long n = flushes.get();
+        System.out.printf("[consumer] batch: flushes=%d entries=%d avgSize=%.1f lastSize=%d lastMs=%.2f maxMs=%.2f pending=%d errors=%d lost=%d%n",
+                n, flushedEntries.get(), n == 0 ? 0.0 : (double) flushedEntries.get() / n,
+                lastFlushSize, lastFlushMicros / 1000.0, maxFlushMicros / 1000.0,
+                queue.size(), failedFlushes.get(), lostEntries.get());
+        maxFlushMicros = 0;
+    }
+
+    // Getters de estadísticas
+    public long flushes()          { return flushes.get(); }
+    public long flushedEntries()   { return flushedEntries.get(); }
+    public long failedFlushes()    { return failedFlushes.get(); }
+    public long lostEntries()      { return lostEntries.get(); }
+    public int lastFlushSize()     { return lastFlushSize; }
+    public long lastFlushMicros()  { return lastFlushMicros; }
+    public int pending()           { return queue.size(); }
+
+    /** Deja de aceptar entradas, vacía la cola y espera al último flush. */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,31 +1,62 @@
 package com.tuapp.consumer.db;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.tuapp.consumer.config.MongoEnv;
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.model.SensorReading;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.ne;
 import static com.mongodb.client.model.Updates.*;
 
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.PushOptions;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 
 /**
  * Servicio Mongo:
  * - Crea índice único por topic.
- * - Upsert por topic + push del payload con límite de 110000 elementos.
+ * - Modo "topic": upsert por topic + push del payload con límite de 110000 elementos.
+ * - Modo "bucket": las lecturas van a un documento por (topic, bucketStart) de MONGO_BUCKET_SPAN_MS,
+ *   y el documento del topic queda como cabecera (lastTs, receivedAt, count) sin 'raws'.
+ *   El costo de cada escritura no crece con la antigüedad del topic.
+ * - appendBatch / prepareBatch: varias entradas por topic/bucket en un solo $each, todo en un bulkWrite.
+ *   Cada lote lleva un id en el filtro ('batches' $ne id): reintentarlo no vuelve a empujar lo ya aplicado.
+ * - En ambos modos el documento del topic guarda en 'last' la última entrada escrita: la API lee el valor actual
+ *   sin traer 'raws' ni buckets.
+ * - Índice topic + lastTs + count: la API arma ETag/Last-Modified con una consulta cubierta por el índice.
  */
-public class MongoService implements AutoCloseable {
+public class MongoService implements TopicAppender, AutoCloseable {
+    private static final int MAX_RAWS = 110000;
+    // Ids de lote recientes por documento: alcanza para reconocer el reintento de un lote ya aplicado
+    private static final int BATCH_IDS = 16;
+    private static final int DUPLICATE_KEY = 11000;
+
     private final MongoClient client;
     private final MongoDatabase db;
     private final MongoCollection<Document> readings;
+    private final MongoCollection<Document> buckets; // null en modo "topic"
+    private final long bucketSpanMs;
 
     public MongoService() {
         this.client   = MongoClients.create(MongoEnv.uri());
@@ -38,38 +69,245 @@ public class MongoService implements AutoCloseable {
                 new IndexOptions().name("uniq_topic").unique(true)
         );
 
+        // Cubre la consulta de versión de la API (ETag con lastTs + count, Last-Modified con receivedAt):
+        // se responde desde el índice sin leer el documento. Reemplaza a topic_lastTs_count, que no tenía receivedAt.
+        this.readings.createIndex(
+                Indexes.ascending("topic", "lastTs", "count", "receivedAt"),
+                new IndexOptions().name("topic_lastTs_count_receivedAt")
+        );
+        dropIndexIfExists("topic_lastTs_count");
+
         // (Opcional) índice por lastTs para ordenar por recientes
         // this.readings.createIndex(Indexes.descending("lastTs"),
         //        new IndexOptions().name("idx_lastTs"));
+
+        if ("bucket".equalsIgnoreCase(MongoEnv.storageMode())) {
+            this.bucketSpanMs = MongoEnv.bucketSpanMs();
+            if (bucketSpanMs <= 0) throw new IllegalArgumentException("MONGO_BUCKET_SPAN_MS debe ser > 0");
+            this.buckets = db.getCollection(MongoEnv.bucketCollection());
+            // Un bucket por topic y ventana; sirve también para rangos (topic =, bucketStart <=/>=)
+            this.buckets.createIndex(
+                    Indexes.ascending("topic", "bucketStart"),
+                    new IndexOptions().name("uniq_topic_bucketStart").unique(true)
+            );
+        } else {
+            this.bucketSpanMs = 0;
+            this.buckets = null;
+        }
+    }
+
+    private void dropIndexIfExists(String name) {
+        for (Document idx : readings.listIndexes()) {
+            if (name.equals(idx.getString("name"))) {
+                readings.dropIndex(name);
+                System.out.printf("[consumer] índice %s reemplazado%n", name);
+                return;
+            }
+        }
+    }
+
+    /** Otra colección de la misma base (rollups, etc.). */
+    public MongoCollection<Document> collection(String name) {
+        return db.getCollection(name);
+    }
+
+    public boolean bucketed() {
+        return buckets != null;
     }
 
     /**
-     * Upsert por topic y push a "raws" con $slice para mantener los últimos 110000 elementos.
+     * Upsert por topic y push a "raws" con $slice para mantener los últimos 110000 elementos
+     * (o al bucket que corresponda en modo "bucket").
      */
-    public void appendByTopic(String topic, String rawJson, long ts, long receivedAt) {
-        Document payloadDoc = Document.parse(rawJson);
+    @Override
+    public void appendByTopic(SensorReading reading) {
+        String topic = reading.topic;
+        Document rawEntry = rawEntry(reading);
+        if (bucketed()) {
+            appendBatch(Map.of(topic, List.of(rawEntry)));
+            return;
+        }
+        long t0 = System.nanoTime();
+        try {
+            readings.updateOne(eq("topic", topic),
+                    topicUpdate(topic, List.of(rawEntry), rawEntry, reading.ts, reading.receivedAt),
+                    new UpdateOptions().upsert(true));
+        } catch (RuntimeException e) {
+            Metrics.mongoError("single");
+            throw e;
+        }
+        Metrics.mongoPersist("single", System.nanoTime() - t0, 1);
+    }
+
+    /** Un UpdateOneModel por topic (o por bucket) con todas sus entradas en un único $each, escrito una vez. */
+    public void appendBatch(Map<String, List<Document>> entriesByTopic) {
+        prepareBatch(entriesByTopic).apply();
+    }
 
-        Document rawEntry = new Document("ts", ts)
-                .append("receivedAt", receivedAt)
-                .append("payload", payloadDoc);
+    /**
+     * Arma los modelos del lote para aplicarlos (y reintentarlos) con BatchWrite.apply().
+     * Las entradas de cada lista deben venir en orden de llegada.
+     */
+    public BatchWrite prepareBatch(Map<String, List<Document>> entriesByTopic) {
+        ObjectId batchId = new ObjectId();
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        List<WriteModel<Document>> topicModels = new ArrayList<>(entriesByTopic.size());
+        List<WriteModel<Document>> bucketModels = new ArrayList<>();
+        int entries = 0;
 
-        Bson filter = eq("topic", topic);
+        for (Map.Entry<String, List<Document>> e : entriesByTopic.entrySet()) {
+            String topic = e.getKey();
+            List<Document> list = e.getValue();
+            entries += list.size();
+            Document last = list.get(list.size() - 1);
+            long lastTs = last.getLong("ts");
+            long receivedAt = last.getLong("receivedAt");
 
+            if (bucketed()) {
+                for (Map.Entry<Long, List<Document>> b : splitByBucket(list).entrySet()) {
+                    bucketModels.add(new UpdateOneModel<>(
+                            and(eq("topic", topic), eq("bucketStart", b.getKey()), ne("batches", batchId)),
+                            combine(bucketUpdate(topic, b.getKey(), b.getValue()), batchMark(batchId)),
+                            upsert));
+                }
+                topicModels.add(new UpdateOneModel<>(and(eq("topic", topic), ne("batches", batchId)),
+                        combine(headerUpdate(topic, list.size(), last, lastTs, receivedAt), batchMark(batchId)), upsert));
+            } else {
+                topicModels.add(new UpdateOneModel<>(and(eq("topic", topic), ne("batches", batchId)),
+                        combine(topicUpdate(topic, list, last, lastTs, receivedAt), batchMark(batchId)), upsert));
+            }
+        }
+        return new BatchWrite(bucketModels, topicModels, entries);
+    }
+
+    private static Bson batchMark(ObjectId batchId) {
+        return pushEach("batches", List.of(batchId), new PushOptions().slice(-BATCH_IDS));
+    }
+
+    /**
+     * Lote listo para escribir. apply() se puede llamar de nuevo después de un error:
+     * - Solo se reenvían los modelos que fallaron (getWriteErrors por índice); los aplicados salen de la lista.
+     * - El filtro 'batches' $ne id hace idempotente cada modelo: si un reintento encuentra el lote ya aplicado
+     *   (respuesta perdida, error de write concern), el upsert choca con el índice único y ese duplicate key
+     *   cuenta como aplicado.
+     * - Primero los buckets y después las cabeceras: la cabecera nunca apunta a un lastTs que todavía no está guardado.
+     */
+    public final class BatchWrite {
+        private final List<WriteModel<Document>> bucketModels;
+        private final List<WriteModel<Document>> topicModels;
+        private final int entries;
+
+        private BatchWrite(List<WriteModel<Document>> bucketModels, List<WriteModel<Document>> topicModels, int entries) {
+            this.bucketModels = bucketModels;
+            this.topicModels = topicModels;
+            this.entries = entries;
+        }
+
+        public void apply() {
+            long t0 = System.nanoTime();
+            try {
+                write(buckets, bucketModels);
+                write(readings, topicModels);
+            } catch (RuntimeException e) {
+                Metrics.mongoError("bulk");
+                throw e;
+            }
+            Metrics.mongoPersist("bulk", System.nanoTime() - t0, entries);
+        }
+
+        /** Modelos que faltan aplicar (0 cuando el lote está completo). */
+        public int pending() {
+            return bucketModels.size() + topicModels.size();
+        }
+    }
+
+    /** bulkWrite sin orden de los modelos pendientes; deja en la lista solo los que no se aplicaron. */
+    private static void write(MongoCollection<Document> coll, List<WriteModel<Document>> models) {
+        if (models.isEmpty()) return;
+        try {
+            coll.bulkWrite(models, new BulkWriteOptions().ordered(false));
+            models.clear();
+        } catch (MongoBulkWriteException e) {
+            // Con error de write concern no se sabe qué quedó replicado: se reintenta todo (el filtro lo hace inocuo)
+            if (e.getWriteConcernError() == null) {
+                Set<Integer> failed = new HashSet<>();
+                for (BulkWriteError err : e.getWriteErrors()) {
+                    if (err.getCode() != DUPLICATE_KEY) failed.add(err.getIndex());
+                }
+                List<WriteModel<Document>> keep = new ArrayList<>(failed.size());
+                for (int i = 0; i < models.size(); i++) {
+                    if (failed.contains(i)) keep.add(models.get(i));
+                }
+                models.clear();
+                models.addAll(keep);
+                if (models.isEmpty()) return;
+            }
+            throw e;
+        }
+    }
+
+    /** Entrada de 'raws' armada desde la lectura ya tipada (sin Document.parse). */
+    public static Document rawEntry(SensorReading reading) {
+        return new Document("ts", reading.ts)
+                .append("receivedAt", reading.receivedAt)
+                .append("payload", reading.toPayload());
+    }
+
+    public long bucketStartOf(long ts) {
+        return Math.floorDiv(ts, bucketSpanMs) * bucketSpanMs;
+    }
+
+    private Map<Long, List<Document>> splitByBucket(List<Document> entries) {
+        Map<Long, List<Document>> out = new LinkedHashMap<>();
+        for (Document d : entries) {
+            out.computeIfAbsent(bucketStartOf(d.getLong("ts")), k -> new ArrayList<>()).add(d);
+        }
+        return out;
+    }
+
+    private static Bson topicUpdate(String topic, List<Document> entries, Document last, long lastTs, long receivedAt) {
         // $each + $slice para limitar el tamaño a 110000 (últimos)
         Bson pushUpdate = push("raws",
-                new Document("$each", List.of(rawEntry))
-                        .append("$slice", -110000)
+                new Document("$each", entries)
+                        .append("$slice", -MAX_RAWS)
         );
 
-        Bson updates = combine(
+        return combine(
                 setOnInsert("topic", topic),
                 pushUpdate,
+                set("last", last),
+                set("receivedAt", receivedAt),
+                set("lastTs", lastTs),
+                inc("count", entries.size())
+        );
+    }
+
+    private static Bson headerUpdate(String topic, int added, Document last, long lastTs, long receivedAt) {
+        return combine(
+                setOnInsert("topic", topic),
+                set("last", last),
                 set("receivedAt", receivedAt),
-                set("lastTs", ts),
-                inc("count", 1)
+                set("lastTs", lastTs),
+                inc("count", added)
         );
+    }
 
-        readings.updateOne(filter, updates, new UpdateOptions().upsert(true));
+    private Bson bucketUpdate(String topic, long bucketStart, List<Document> entries) {
+        long minTs = Long.MAX_VALUE, maxTs = Long.MIN_VALUE;
+        for (Document d : entries) {
+            long ts = d.getLong("ts");
+            minTs = Math.min(minTs, ts);
+            maxTs = Math.max(maxTs, ts);
+        }
+        return combine(
+                setOnInsert("topic", topic),
+                setOnInsert("bucketStart", bucketStart),
+                setOnInsert("bucketEnd", bucketStart + bucketSpanMs),
+                push("raws", new Document("$each", entries)),
+                min("minTs", minTs),
+                max("maxTs", maxTs),
+                inc("count", entries.size())
+        );
     }
 
     @Override public void close() {
@@ -0,0 +1,213 @@
+package com.tuapp.consumer.db;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.model.SensorReading;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+
+/**
+ * Agregados por topic y campo a 1 minuto, 1 hora y 1 día (UTC): min, max, sum, count, avg y last.
+ * - add() acumula en memoria un delta por (topic, campo, resolución, bucketStart) según el ts de la lectura,
+ *   así las lecturas tardías o desordenadas caen en su bucket correcto.
+ * - Cada flushMs los deltas se fusionan en la colección con un update por pipeline:
+ *   min/max/sum/count se combinan con lo guardado y 'last' solo se reemplaza si el ts es >= lastTs.
+ * - Si el bulkWrite falla, los deltas vuelven al mapa y salen en el próximo flush; en un fallo parcial solo los
+ *   de las escrituras que fallaron (las demás ya se aplicaron y contarían dos veces).
+ */
+public class RollupAggregator implements AutoCloseable {
+
+    /** Resoluciones: nombre en el documento y ancho del bucket. */
+    public enum Resolution {
+        MINUTE("1m", 60_000L), HOUR("1h", 3_600_000L), DAY("1d", 86_400_000L);
+
+        final String id;
+        final long spanMs;
+
+        Resolution(String id, long spanMs) {
+            this.id = id;
+            this.spanMs = spanMs;
+        }
+    }
+
+    private record Key(String topic, String field, Resolution res, long bucketStart) {}
+
+    /** Delta desde el último flush; solo se modifica dentro de compute() del mapa. */
+    private static final class Agg {
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum;
+        long count;
+        long lastTs = Long.MIN_VALUE;
+        double last;
+
+        void add(double v, long ts) {
+            if (v < min) min = v;
+            if (v > max) max = v;
+            sum += v;
+            count++;
+            if (ts >= lastTs) {
+                lastTs = ts;
+                last = v;
+            }
+        }
+
+        Agg merge(Agg o) {
+            min = Math.min(min, o.min);
+            max = Math.max(max, o.max);
+            sum += o.sum;
+            count += o.count;
+            if (o.lastTs >= lastTs) {
+                lastTs = o.lastTs;
+                last = o.last;
+            }
+            return this;
+        }
+    }
+
+    private final MongoCollection<Document> rollups;
+    private final long flushMs;
+    private final ConcurrentHashMap<Key, Agg> pending = new ConcurrentHashMap<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    public RollupAggregator(MongoCollection<Document> rollups, long flushMs) {
+        if (flushMs <= 0) throw new IllegalArgumentException("ROLLUP_FLUSH_MS debe ser > 0");
+        this.rollups = rollups;
+        this.flushMs = flushMs;
+        this.rollups.createIndex(
+                Indexes.ascending("topic", "field", "res", "bucketStart"),
+                new IndexOptions().name("uniq_topic_field_res_bucketStart").unique(true)
+        );
+        Metrics.gauge("consumer_rollup_pending", "Buckets de rollup con cambios sin volcar", pending::size);
+
+        this.flusher = new Thread(this::runLoop, "rollup-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /** Suma los campos numéricos de la lectura (state cuenta como 1/0: el promedio es el ciclo de trabajo). */
+    public void add(SensorReading r) {
+        long ts = r.ts;
+        if (r.temperature != null) add(r.topic, "temperature", r.temperature, ts);
+        if (r.humidity != null)    add(r.topic, "humidity", r.humidity, ts);
+        if (r.power != null)       add(r.topic, "power", r.power, ts);
+        if (r.energy != null)      add(r.topic, "energy", r.energy, ts);
+        if (r.value != null)       add(r.topic, r.type != null ? r.type : "value", r.value, ts);
+        if (r.state != null)       add(r.topic, "state", r.state ? 1.0 : 0.0, ts);
+    }
+
+    private void add(String topic, String field, double v, long ts) {
+        for (Resolution res : Resolution.values()) {
+            long start = Math.floorDiv(ts, res.spanMs) * res.spanMs;
+            pending.compute(new Key(topic, field, res, start), (k, agg) -> {
+                if (agg == null) agg = new Agg();
+                agg.add(v, ts);
+                return agg;
+            });
+        }
+    }
+
+    private void runLoop() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(flushMs);
+            } catch (InterruptedException e) {
+                break;
+            }
+            flush();
+        }
+        flush();
+    }
+
+    /** Vuelca los deltas pendientes; cada clave se saca del mapa de forma atómica (lo nuevo queda para el próximo). */
+    void flush() {
+        if (pending.isEmpty()) return;
+        List<Key> keys = new ArrayList<>();
+        List<WriteModel<Document>> models = new ArrayList<>();
+        List<Agg> aggs = new ArrayList<>();
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        for (Key k : pending.keySet()) {
+            Agg a = pending.remove(k);
+            if (a == null) continue;
+            keys.add(k);
+            aggs.add(a);
+            models.add(new UpdateOneModel<>(
+                    and(eq("topic", k.topic()), eq("field", k.field()), eq("res", k.res().id),
+                            eq("bucketStart", k.bucketStart())),
+                    mergeUpdate(k, a), upsert));
+        }
+        if (models.isEmpty()) return;
+
+        long t0 = System.nanoTime();
+        try {
+            rollups.bulkWrite(models, new BulkWriteOptions().ordered(false));
+            Metrics.mongoPersist("rollup", System.nanoTime() - t0, models.size());
+        } catch (MongoBulkWriteException e) {
+            Metrics.mongoError("rollup");
+            // Fallo parcial (unordered): lo demás ya se aplicó; reencolar solo los índices fallidos para no sumar dos veces.
+            // Un error solo de write concern también deja aplicadas las escrituras: no se reencola nada.
+            for (BulkWriteError err : e.getWriteErrors()) {
+                int i = err.getIndex();
+                pending.merge(keys.get(i), aggs.get(i), Agg::merge);
+            }
+            System.err.printf("[consumer] rollup: bulkWrite parcial buckets=%d fallidos=%d err=%s%n",
+                    models.size(), e.getWriteErrors().size(), e.getMessage());
+        } catch (Exception e) {
+            Metrics.mongoError("rollup");
+            // Sin respuesta del servidor: se reencola todo (se fusiona con lo que haya llegado mientras tanto)
+            for (int i = 0; i < keys.size(); i++) {
+                pending.merge(keys.get(i), aggs.get(i), Agg::merge);
+            }
+            System.err.printf("[consumer] rollup: error en bulkWrite buckets=%d err=%s%n", models.size(), e.getMessage());
+        }
+    }
+
+    /** Update por pipeline: combina el delta con el documento guardado (o lo crea). */
+    private static List<Bson> mergeUpdate(Key k, Agg a) {
+        // $literal: en un pipeline un string que empieza con '$' se leería como ruta de campo
+        Document set = new Document("topic", new Document("$literal", k.topic()))
+                .append("field", new Document("$literal", k.field()))
+                .append("res", k.res().id)
+                .append("bucketStart", k.bucketStart())
+                .append("bucketEnd", k.bucketStart() + k.res().spanMs)
+                .append("min", new Document("$min", List.of("$min", a.min)))
+                .append("max", new Document("$max", List.of("$max", a.max)))
+                .append("sum", new Document("$add", List.of(new Document("$ifNull", List.of("$sum", 0.0)), a.sum)))
+                .append("count", new Document("$add", List.of(new Document("$ifNull", List.of("$count", 0L)), a.count)))
+                // 'last' solo avanza si el delta trae un ts igual o más nuevo que el guardado
+                .append("last", new Document("$cond", List.of(
+                        new Document("$gte", List.of(a.lastTs, new Document("$ifNull", List.of("$lastTs", Long.MIN_VALUE)))),
+                        a.last, "$last")))
+                .append("lastTs", new Document("$max", List.of("$lastTs", a.lastTs)));
+        Document avg = new Document("avg", new Document("$divide", List.of("$sum", "$count")));
+        return List.of(new Document("$set", set), new Document("$set", avg));
+    }
+
+    /** Detiene el flusher y vuelca lo pendiente. */
+    @Override
+    public void close() {
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.tuapp.consumer.db;
+
+import com.tuapp.consumer.model.SensorReading;
+
+/**
+ * Destino de escritura por topic.
+ * - MongoService: un upsert por lectura (modo "single").
+ * - MongoBatchWriter: acumula y hace bulkWrite (modo "batch").
+ * - SpoolJournal: journal local (modo "spool").
+ */
+public interface TopicAppender {
+    void appendByTopic(SensorReading reading);
+
+    /** Escribe y llama a onDurable cuando la lectura quedó guardada. Por defecto: al volver de appendByTopic. */
+    default void appendByTopic(SensorReading reading, Runnable onDurable) {
+        appendByTopic(reading);
+        onDurable.run();
+    }
+}
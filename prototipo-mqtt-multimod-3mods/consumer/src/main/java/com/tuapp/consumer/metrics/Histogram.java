@@ -0,0 +1,45 @@
+package com.tuapp.consumer.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Histograma de buckets fijos (en segundos) al estilo Prometheus; observe() no toma locks. */
+public final class Histogram {
+    private final double[] bounds;
+    private final LongAdder[] counts; // no acumulativos; se acumulan al renderizar
+    private final DoubleAdder sum = new DoubleAdder();
+    private final LongAdder count = new LongAdder();
+
+    Histogram(double... bounds) {
+        this.bounds = bounds.clone();
+        this.counts = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+    }
+
+    public void observe(double seconds) {
+        int i = 0;
+        while (i < bounds.length && seconds > bounds[i]) i++;
+        counts[i].increment();
+        sum.add(seconds);
+        count.increment();
+    }
+
+    public void observeNanos(long nanos) {
+        observe(nanos / 1e9);
+    }
+
+    void render(StringBuilder out, String name, String labels) {
+        String sep = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i].sum();
+            out.append(name).append("_bucket{").append(sep).append("le=\"").append(bounds[i]).append("\"} ")
+               .append(cumulative).append('\n');
+        }
+        cumulative += counts[bounds.length].sum();
+        out.append(name).append("_bucket{").append(sep).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(sum.sum()).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(count.sum()).append('\n');
+    }
+}
@@ -0,0 +1,238 @@
+package com.tuapp.consumer.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registro de métricas del consumer (estático, como la config), expuesto en formato Prometheus por MetricsServer.
+ * - Contadores y histogramas por nombre + etiquetas; los topics se agrupan por patrón para acotar cardinalidad.
+ * - Gauges: se leen al momento del scrape (profundidad de colas, pendientes, backlog del spool).
+ * - Las métricas por mensaje resuelven sus instrumentos una vez por topic (TopicMetrics): en el camino caliente
+ *   no se arman etiquetas ni claves, es un get en un ConcurrentHashMap.
+ */
+public final class Metrics {
+
+    // Latencias de dispositivo -> consumer (pueden ser de minutos si el reloj del dispositivo está corrido)
+    private static final double[] LAG_BUCKETS =
+            {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300};
+    // Latencias de escritura en Mongo
+    private static final double[] PERSIST_BUCKETS =
+            {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    // Evaluación de reglas (microsegundos)
+    private static final double[] EVAL_BUCKETS =
+            {0.000001, 0.0000025, 0.000005, 0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.001, 0.01};
+
+    private record Family(String type, String help) {}
+    private record Key(String name, String labels) implements Comparable<Key> {
+        @Override public int compareTo(Key o) {
+            int c = name.compareTo(o.name);
+            return c != 0 ? c : labels.compareTo(o.labels);
+        }
+    }
+
+    private static final Map<String, Family> FAMILIES = new ConcurrentHashMap<>();
+    private static final Map<Key, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<Key, Histogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+    private static final Map<Key, DoubleSupplier> GAUGES = new ConcurrentSkipListMap<>();
+
+    /**
+     * Instrumentos de un topic, resueltos la primera vez que se usan. Dos hilos pueden resolver el mismo a la vez:
+     * el registro devuelve la misma instancia, así que da igual cuál quede.
+     */
+    private static final class TopicMetrics {
+        final String pattern;
+        volatile LongAdder received, parseFailed, duplicate, deadband;
+        volatile Histogram lag;
+
+        TopicMetrics(String pattern) {
+            this.pattern = pattern;
+        }
+    }
+
+    private static final Map<String, TopicMetrics> BY_TOPIC = new ConcurrentHashMap<>();
+
+    private static TopicMetrics topic(String topic) {
+        TopicMetrics m = BY_TOPIC.get(topic);
+        return m != null ? m : BY_TOPIC.computeIfAbsent(topic, t -> new TopicMetrics(topicPattern(t)));
+    }
+
+    private Metrics() {}
+
+    // ---- Métricas del consumer ----
+
+    public static void messageReceived(String topic) {
+        TopicMetrics m = topic(topic);
+        LongAdder c = m.received;
+        if (c == null) m.received = c = counter("consumer_messages_total", "Mensajes MQTT recibidos", "pattern", m.pattern);
+        c.increment();
+    }
+
+    public static void parseFailed(String topic) {
+        TopicMetrics m = topic(topic);
+        LongAdder c = m.parseFailed;
+        if (c == null) m.parseFailed = c = counter("consumer_parse_failures_total", "Mensajes descartados por JSON inválido",
+                "pattern", m.pattern);
+        c.increment();
+    }
+
+    public static void duplicate(String topic) {
+        TopicMetrics m = topic(topic);
+        LongAdder c = m.duplicate;
+        if (c == null) m.duplicate = c = counter("consumer_dedup_hits_total", "Redeliveries descartadas antes de persistir",
+                "pattern", m.pattern);
+        c.increment();
+    }
+
+    /** Bucket sellado en formato columnar: entradas y bytes del documento antes / del bloque después. */
+    public static void bucketSealed(int entries, long bytesBefore, long bytesAfter) {
+        counter("consumer_compact_buckets_total", "Buckets sellados en formato columnar").increment();
+        counter("consumer_compact_entries_total", "Lecturas codificadas en bloques columnares").add(entries);
+        counter("consumer_compact_bytes_in_total", "Bytes BSON de los buckets antes de sellar").add(bytesBefore);
+        counter("consumer_compact_bytes_out_total", "Bytes de los bloques columnares").add(bytesAfter);
+    }
+
+    public static void deadbandFiltered(String topic) {
+        TopicMetrics m = topic(topic);
+        LongAdder c = m.deadband;
+        if (c == null) m.deadband = c = counter("consumer_deadband_filtered_total",
+                "Lecturas sin cambio significativo que no se guardaron", "pattern", m.pattern);
+        c.increment();
+    }
+
+    public static void anomaly(String topic, String kind) {
+        counter("consumer_anomalies_total", "Anomalías detectadas por tipo",
+                "pattern", topicPattern(topic), "kind", kind).increment();
+    }
+
+    public static void presenceEvent(boolean online) {
+        counter("consumer_presence_events_total", "Transiciones de presencia emitidas",
+                "status", online ? "online" : "offline").increment();
+    }
+
+    public static void sinkWritten(String sink, long nanos, int entries) {
+        histogram("consumer_sink_write_seconds", "Latencia de escritura de un lote por sink", PERSIST_BUCKETS, "sink", sink)
+                .observeNanos(nanos);
+        counter("consumer_sink_written_total", "Lecturas escritas por sink", "sink", sink).add(entries);
+    }
+
+    public static void sinkDropped(String sink) {
+        counter("consumer_sink_dropped_total", "Lecturas descartadas por cola llena del sink", "sink", sink).increment();
+    }
+
+    public static void sinkError(String sink, int entries) {
+        counter("consumer_sink_errors_total", "Lecturas perdidas por error de escritura del sink", "sink", sink).add(entries);
+    }
+
+    /** receivedAt - ts del dispositivo; los valores negativos (reloj adelantado) cuentan como 0. */
+    public static void deviceLag(String topic, long lagMs) {
+        TopicMetrics m = topic(topic);
+        Histogram h = m.lag;
+        if (h == null) m.lag = h = histogram("consumer_device_lag_seconds",
+                "Demora entre ts del dispositivo y recepción en el consumer", LAG_BUCKETS, "pattern", m.pattern);
+        h.observe(Math.max(0, lagMs) / 1000.0);
+    }
+
+    /** Duración de una escritura en Mongo (updateOne o bulkWrite) y cantidad de entradas escritas. */
+    public static void mongoPersist(String op, long nanos, int entries) {
+        histogram("consumer_mongo_persist_seconds", "Latencia de escritura en Mongo", PERSIST_BUCKETS, "op", op)
+                .observeNanos(nanos);
+        counter("consumer_mongo_persisted_entries_total", "Entradas escritas en Mongo", "op", op).add(entries);
+    }
+
+    public static void mongoError(String op) {
+        counter("consumer_mongo_errors_total", "Escrituras en Mongo fallidas", "op", op).increment();
+    }
+
+    public static void rulesEval(long nanos) {
+        histogram("consumer_rules_eval_seconds", "Tiempo de actualizar estado y evaluar reglas", EVAL_BUCKETS)
+                .observeNanos(nanos);
+    }
+
+    /** Comando publicado por el motor de reglas y su tiempo de reacción desde receivedAt. */
+    public static void ruleCommand(String action, long reactionMs) {
+        counter("consumer_rules_commands_total", "Comandos publicados por el motor de reglas", "action", action).increment();
+        histogram("consumer_rules_reaction_seconds", "Demora receivedAt -> publicación del comando", PERSIST_BUCKETS)
+                .observe(reactionMs / 1000.0);
+    }
+
+    public static void ruleBudgetExceeded() {
+        counter("consumer_rules_budget_exceeded_total", "Comandos publicados fuera de RULES_BUDGET_MS").increment();
+    }
+
+    /** sensors/indoor/temperature -> sensors/+/temperature */
+    static String topicPattern(String topic) {
+        int first = topic.indexOf('/');
+        int last = topic.lastIndexOf('/');
+        if (first < 0 || first == last) return topic;
+        return topic.substring(0, first) + "/+" + topic.substring(last);
+    }
+
+    // ---- Registro genérico ----
+
+    public static LongAdder counter(String name, String help, String... labelPairs) {
+        FAMILIES.putIfAbsent(name, new Family("counter", help));
+        return COUNTERS.computeIfAbsent(new Key(name, labels(labelPairs)), k -> new LongAdder());
+    }
+
+    public static Histogram histogram(String name, String help, double[] bounds, String... labelPairs) {
+        FAMILIES.putIfAbsent(name, new Family("histogram", help));
+        return HISTOGRAMS.computeIfAbsent(new Key(name, labels(labelPairs)), k -> new Histogram(bounds));
+    }
+
+    public static void gauge(String name, String help, DoubleSupplier value, String... labelPairs) {
+        FAMILIES.putIfAbsent(name, new Family("gauge", help));
+        GAUGES.put(new Key(name, labels(labelPairs)), value);
+    }
+
+    private static String labels(String... pairs) {
+        if (pairs.length % 2 != 0) throw new IllegalArgumentException("etiquetas en pares nombre/valor");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(pairs[i]).append("=\"")
+              .append(pairs[i + 1].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return sb.toString();
+    }
+
+    /** Formato de texto de Prometheus (0.0.4). */
+    public static String render() {
+        StringBuilder out = new StringBuilder(4096);
+        String[] current = {null};
+        COUNTERS.forEach((k, v) -> {
+            header(out, current, k.name());
+            out.append(k.name()).append(braces(k.labels())).append(' ').append(v.sum()).append('\n');
+        });
+        HISTOGRAMS.forEach((k, v) -> {
+            header(out, current, k.name());
+            v.render(out, k.name(), k.labels());
+        });
+        GAUGES.forEach((k, v) -> {
+            header(out, current, k.name());
+            double value;
+            try {
+                value = v.getAsDouble();
+            } catch (RuntimeException e) {
+                value = Double.NaN;
+            }
+            out.append(k.name()).append(braces(k.labels())).append(' ').append(value).append('\n');
+        });
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String[] current, String name) {
+        if (name.equals(current[0])) return;
+        current[0] = name;
+        Family f = FAMILIES.get(name);
+        out.append("# HELP ").append(name).append(' ').append(f.help()).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(f.type()).append('\n');
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+}
@@ -0,0 +1,40 @@
+package com.tuapp.consumer.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/** Servidor HTTP embebido (JDK) que expone GET /metrics en formato Prometheus. */
+public class MetricsServer implements AutoCloseable {
+    private final HttpServer server;
+
+    public MetricsServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/metrics", this::handle);
+        this.server.start();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Metrics.render().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
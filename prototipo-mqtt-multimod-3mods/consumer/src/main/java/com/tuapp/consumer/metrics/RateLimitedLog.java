@@ -0,0 +1,33 @@
+package com.tuapp.consumer.metrics;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log con límite de frecuencia: como máximo una línea cada intervalMs; las demás se cuentan
+ * y se informan como "(+N omitidos)" en la siguiente línea que sí se imprime.
+ */
+public final class RateLimitedLog {
+    private final PrintStream out;
+    private final long intervalMs;
+    private final AtomicLong nextAt = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public RateLimitedLog(PrintStream out, long intervalMs) {
+        this.out = out;
+        this.intervalMs = intervalMs;
+    }
+
+    public void log(String format, Object... args) {
+        if (intervalMs < 0) return; // deshabilitado
+        long now = System.currentTimeMillis();
+        long next = nextAt.get();
+        if (now < next || !nextAt.compareAndSet(next, now + intervalMs)) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        long skipped = suppressed.getAndSet(0);
+        String line = String.format(format, args);
+        out.println(skipped > 0 ? line + " (+" + skipped + " omitidos)" : line);
+    }
+}
@@ -1,5 +1,14 @@
 package com.tuapp.consumer.model;
 
+import org.bson.Document;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lectura normalizada: los campos conocidos ya vienen tipados
+ * (humidity "60" -> 60.0, state "ON"/"OFF" -> true/false) y el resto va en extras.
+ */
 public class SensorReading {
     public String unit;
     public String type;
@@ -7,9 +16,43 @@ public class SensorReading {
     public String sensorId;
     public Long ts;
 
+    // formato NUEVO (simulador)
+    public String deviceId;
+    public Double temperature;
+    public Double humidity;
+    public Double power;
+    public Double energy;
+    public Boolean state;
+
+    // campos no reconocidos, tal como vinieron (ya convertidos a tipos BSON)
+    public Map<String, Object> extras;
+
     // enriquecidos al consumir
     public String topic;
     public Long receivedAt;
 
     public SensorReading() {}
+
+    public void putExtra(String key, Object v) {
+        if (extras == null) extras = new LinkedHashMap<>();
+        extras.put(key, v);
+    }
+
+    /** Payload BSON armado directo desde los campos (sin volver a parsear JSON). */
+    public Document toPayload() {
+        Document d = new Document();
+        if (deviceId != null)    d.append("deviceId", deviceId);
+        if (sensorId != null)    d.append("sensorId", sensorId);
+        if (type != null)        d.append("type", type);
+        if (value != null)       d.append("value", value);
+        if (temperature != null) d.append("temperature", temperature);
+        if (humidity != null)    d.append("humidity", humidity);
+        if (power != null)       d.append("power", power);
+        if (energy != null)      d.append("energy", energy);
+        if (state != null)       d.append("state", state);
+        if (unit != null)        d.append("unit", unit);
+        if (ts != null)          d.append("ts", ts);
+        if (extras != null)      d.putAll(extras);
+        return d;
+    }
 }
@@ -0,0 +1,146 @@
+package com.tuapp.consumer.model;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.bson.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parse en una sola pasada (Gson JsonReader, sin árbol intermedio) del payload JSON a SensorReading.
+ * - temperature/humidity/power/energy/value: número o string numérico -> Double.
+ * - state: "ON"/"OFF", true/false o 1/0 -> Boolean; cualquier otro valor queda tal cual en extras (state null).
+ * - ts: número o string numérico; si falta se usa receivedAt.
+ * Lanza IllegalArgumentException si el payload no es un objeto JSON válido o trae algo después del objeto.
+ */
+public final class SensorReadingParser {
+    private SensorReadingParser() {}
+
+    public static SensorReading parse(String topic, byte[] payload, long receivedAt) {
+        SensorReading r = new SensorReading();
+        r.topic = topic;
+        r.receivedAt = receivedAt;
+
+        try (JsonReader in = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(payload), StandardCharsets.UTF_8))) {
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                switch (name) {
+                    case "ts"          -> r.ts = readLong(in, name);
+                    case "deviceId"    -> r.deviceId = readString(in);
+                    case "sensorId"    -> r.sensorId = readString(in);
+                    case "type"        -> r.type = readString(in);
+                    case "unit"        -> r.unit = readString(in);
+                    case "value"       -> r.value = readDouble(in, name);
+                    case "temperature" -> r.temperature = readDouble(in, name);
+                    case "humidity"    -> r.humidity = readDouble(in, name);
+                    case "power"       -> r.power = readDouble(in, name);
+                    case "energy"      -> r.energy = readDouble(in, name);
+                    case "state"       -> readState(in, r);
+                    default            -> r.putExtra(name, readAny(in));
+                }
+            }
+            in.endObject();
+            if (in.peek() != JsonToken.END_DOCUMENT) {
+                throw new IllegalStateException("contenido extra después del objeto");
+            }
+        } catch (IOException | IllegalStateException e) {
+            throw new IllegalArgumentException("payload JSON inválido: " + e.getMessage(), e);
+        }
+
+        if (r.ts == null) r.ts = receivedAt;
+        return r;
+    }
+
+    private static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString(); // números/booleanos también se aceptan como texto
+    }
+
+    private static Double readDouble(JsonReader in, String field) throws IOException {
+        JsonToken t = in.peek();
+        if (t == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (t != JsonToken.NUMBER && t != JsonToken.STRING) {
+            throw new IllegalStateException(field + " no es numérico");
+        }
+        String s = in.nextString().trim();
+        try {
+            return Double.valueOf(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(field + " no es numérico: " + s);
+        }
+    }
+
+    private static Long readLong(JsonReader in, String field) throws IOException {
+        Double d = readDouble(in, field);
+        return d == null ? null : d.longValue();
+    }
+
+    /** state reconocido -> r.state; un valor desconocido no invalida la lectura: se guarda crudo en extras. */
+    private static void readState(JsonReader in, SensorReading r) throws IOException {
+        switch (in.peek()) {
+            case NULL -> in.nextNull();
+            case BOOLEAN -> r.state = in.nextBoolean();
+            case NUMBER -> r.state = in.nextDouble() != 0.0;
+            case STRING -> {
+                String raw = in.nextString();
+                String s = raw.trim();
+                if (s.equalsIgnoreCase("ON") || s.equalsIgnoreCase("true") || s.equals("1")) r.state = true;
+                else if (s.equalsIgnoreCase("OFF") || s.equalsIgnoreCase("false") || s.equals("0")) r.state = false;
+                else r.putExtra("state", raw);
+            }
+            default -> r.putExtra("state", readAny(in));
+        }
+    }
+
+    /** Valor arbitrario convertido a tipos BSON (Document, List, String, Long/Double, Boolean, null). */
+    private static Object readAny(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case BEGIN_OBJECT -> {
+                Document d = new Document();
+                in.beginObject();
+                while (in.hasNext()) d.append(in.nextName(), readAny(in));
+                in.endObject();
+                return d;
+            }
+            case BEGIN_ARRAY -> {
+                List<Object> l = new ArrayList<>();
+                in.beginArray();
+                while (in.hasNext()) l.add(readAny(in));
+                in.endArray();
+                return l;
+            }
+            case STRING -> {
+                return in.nextString();
+            }
+            case NUMBER -> {
+                String s = in.nextString();
+                try {
+                    return Long.valueOf(s);
+                } catch (NumberFormatException e) {
+                    return Double.valueOf(s);
+                }
+            }
+            case BOOLEAN -> {
+                return in.nextBoolean();
+            }
+            case NULL -> {
+                in.nextNull();
+                return null;
+            }
+            default -> throw new IllegalStateException("token inesperado " + in.peek());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.tuapp.consumer.mqtt;
+
+import com.tuapp.consumer.pipeline.IngestStage;
+
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Ventana de mensajes en vuelo con acks manuales:
+ * - open() bloquea si ya hay maxInflight mensajes sin confirmar (backpressure hacia el broker).
+ * - Los acks se completan en cualquier orden (shards, lotes), pero se envían al broker en el orden de llegada,
+ *   como pide MQTT para los PUBACK de QoS 1.
+ * - Un mensaje que no se pudo persistir (redeliver) deja un hueco: nada posterior se confirma y se avisa a
+ *   onRedeliver para que el subscriber retome la sesión. Al reconectar, reset() descarta lo pendiente de la
+ *   conexión anterior y el broker lo reentrega. La deduplicación solo descarta lo que llegó a confirmarse
+ *   (registra la clave con el ack); lo que falló o seguía en vuelo se vuelve a procesar y puede quedar
+ *   guardado dos veces si la copia anterior terminó después.
+ */
+final class AckSequencer {
+
+    /** Envía el PUBACK real. */
+    interface Sender {
+        void ack(int messageId, int qos);
+    }
+
+    private static final IngestStage.RedeliverableAck STALE = new IngestStage.RedeliverableAck() {
+        @Override public void run() { }
+        @Override public void redeliver() { }
+    };
+
+    private final Sender sender;
+    private final Runnable onRedeliver;
+    private final Semaphore window;
+    private final int[] ids;
+    private final int[] qos;
+    private final boolean[] done;
+    private long head; // siguiente seq a confirmar al broker
+    private long tail; // siguiente seq a asignar
+    private long generation; // cambia en cada reset(): los acks de conexiones anteriores se ignoran
+
+    AckSequencer(int maxInflight, Sender sender, Runnable onRedeliver) {
+        if (maxInflight <= 0) throw new IllegalArgumentException("MQTT_MAX_INFLIGHT debe ser > 0");
+        this.sender = sender;
+        this.onRedeliver = onRedeliver;
+        this.window = new Semaphore(maxInflight);
+        this.ids = new int[maxInflight];
+        this.qos = new int[maxInflight];
+        this.done = new boolean[maxInflight];
+    }
+
+    /**
+     * Reserva un lugar para el mensaje y devuelve el ack a llamar cuando esté persistido (idempotente).
+     * null si mientras esperaba lugar se retomó la sesión: el mensaje es de la conexión anterior y se reentrega.
+     */
+    IngestStage.RedeliverableAck open(int messageId, int messageQos) throws InterruptedException {
+        long gen;
+        synchronized (this) {
+            gen = generation;
+        }
+        window.acquire();
+        long seq;
+        synchronized (this) {
+            if (gen != generation) {
+                window.release();
+                return null;
+            }
+            seq = tail++;
+            int slot = slot(seq);
+            ids[slot] = messageId;
+            qos[slot] = messageQos;
+            done[slot] = false;
+        }
+        return new Handle(seq, gen);
+    }
+
+    /** Olvida lo pendiente de la conexión anterior y libera la ventana (llamar con el cliente desconectado). */
+    synchronized void reset() {
+        generation++;
+        int pending = (int) (tail - head);
+        head = tail;
+        Arrays.fill(done, false);
+        window.release(pending);
+    }
+
+    private void complete(long seq) {
+        done[slot(seq)] = true;
+        while (head < tail && done[slot(head)]) {
+            int slot = slot(head);
+            done[slot] = false;
+            if (qos[slot] > 0) sender.ack(ids[slot], qos[slot]);
+            head++;
+            window.release();
+        }
+    }
+
+    synchronized int inflight() {
+        return (int) (tail - head);
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % ids.length);
+    }
+
+    private final class Handle implements IngestStage.RedeliverableAck {
+        private final long seq;
+        private final long gen;
+        private boolean called;
+
+        Handle(long seq, long gen) {
+            this.seq = seq;
+            this.gen = gen;
+        }
+
+        @Override
+        public void run() {
+            synchronized (AckSequencer.this) {
+                if (called || gen != generation) return;
+                called = true;
+                complete(seq);
+            }
+        }
+
+        @Override
+        public void redeliver() {
+            synchronized (AckSequencer.this) {
+                if (called || gen != generation) return;
+                called = true;
+            }
+            onRedeliver.run();
+        }
+    }
+}
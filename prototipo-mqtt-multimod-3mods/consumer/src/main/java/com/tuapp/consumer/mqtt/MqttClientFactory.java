@@ -3,9 +3,27 @@ package com.tuapp.consumer.mqtt;
 import com.tuapp.consumer.config.Env;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 public class MqttClientFactory {
+    /**
+     * Cliente v3 del subscriber. Con acks manuales la sesión es persistente: el id es estable por réplica
+     * (consumer-v3-<instancia>) para retomarla; sin acks manuales, id aleatorio como antes.
+     */
     public static MqttClient newClient(Env env) throws MqttException {
-        return new MqttClient(env.brokerUrl(), MqttClient.generateClientId());
+        String clientId = env.mqttManualAcks() ? "consumer-v3-" + env.consumerInstanceId() : MqttClient.generateClientId();
+        return new MqttClient(env.brokerUrl(), clientId, new MemoryPersistence());
+    }
+
+    /**
+     * Cliente MQTT v5 asíncrono. El id es estable por réplica (consumer-<grupo>-<instancia>)
+     * para que el broker reconozca la misma réplica (y su sesión) al reconectar.
+     */
+    public static org.eclipse.paho.mqttv5.client.MqttAsyncClient newV5Client(Env env)
+            throws org.eclipse.paho.mqttv5.common.MqttException {
+        String group = env.shareGroup().isBlank() ? "solo" : env.shareGroup();
+        String clientId = "consumer-" + group + "-" + env.consumerInstanceId();
+        return new org.eclipse.paho.mqttv5.client.MqttAsyncClient(env.brokerUrl(), clientId,
+                new org.eclipse.paho.mqttv5.client.persist.MemoryPersistence());
     }
 }
@@ -0,0 +1,58 @@
+package com.tuapp.consumer.mqtt;
+
+import com.tuapp.consumer.config.Env;
+import com.tuapp.consumer.service.CommandPublisher;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.io.Closeable;
+
+/**
+ * Publica con un cliente propio y asíncrono (QoS 1), sin esperar el PUBACK:
+ * comandos del motor de reglas, republicación de lecturas (MqttRepublishSink) y estado de presencia (retained).
+ */
+public class MqttCommandPublisher implements CommandPublisher, Closeable {
+    private static final int MAX_INFLIGHT = 1000;
+
+    private final MqttAsyncClient client;
+
+    public MqttCommandPublisher(Env env) throws MqttException {
+        this.client = new MqttAsyncClient(env.brokerUrl(), MqttAsyncClient.generateClientId(), new MemoryPersistence());
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setAutomaticReconnect(true);
+        options.setCleanSession(true);
+        options.setConnectionTimeout(10);
+        options.setMaxInflight(MAX_INFLIGHT);
+        client.connect(options).waitForCompletion();
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload) {
+        publish(topic, payload, false);
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload, boolean retained) {
+        try {
+            MqttMessage msg = new MqttMessage(payload);
+            msg.setQos(1);
+            msg.setRetained(retained);
+            client.publish(topic, msg);
+        } catch (MqttException e) {
+            System.err.printf("[consumer] error al publicar topic=%s err=%s%n", topic, e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            client.disconnect().waitForCompletion(2000);
+        } catch (MqttException ignored) {}
+        try {
+            client.close();
+        } catch (MqttException ignored) {}
+    }
+}
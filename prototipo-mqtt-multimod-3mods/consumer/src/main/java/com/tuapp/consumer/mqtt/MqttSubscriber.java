@@ -1,48 +1,114 @@
 package com.tuapp.consumer.mqtt;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.tuapp.consumer.config.Env;
-import com.tuapp.consumer.db.MongoService;
-import com.tuapp.consumer.service.DecisionService;
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.pipeline.IngestStage;
 import org.eclipse.paho.client.mqttv3.*;
 
-import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Subscriber:
  * - Se suscribe a sensors/+/+ y switches/+/+.
  * - Solo formato NUEVO (JSON).
- * - Persiste por topic acumulando payloads en 'raws' (límite 110000).
+ * - El callback solo sella receivedAt y entrega el mensaje a la etapa de ingesta
+ *   (pipeline por shards o procesamiento directo); parse y persistencia van ahí.
+ * - Con MQTT_MANUAL_ACKS=true (default) el PUBACK sale recién cuando la lectura quedó escrita, igual que en v5
+ *   (AckSequencer sobre setManualAcks / messageArrivedComplete). La sesión es persistente (clean session off,
+ *   client id estable por réplica) y una lectura sin persistir hace retomar la sesión para que el broker la reentregue.
  */
-public class MqttSubscriber implements MqttCallback {
+public class MqttSubscriber implements MqttCallbackExtended {
+    private static final long REDELIVERY_DELAY_MS = 2000;
+    private static final long RECONNECT_RETRY_MS = 5000;
+
     private final Env env;
-    private final DecisionService decision;
-    private final MongoService mongo;
+    private final IngestStage ingest;
+    private final AtomicBoolean redelivering = new AtomicBoolean();
     private MqttClient client;
+    private MqttConnectOptions options;
+    private AckSequencer acks; // null sin acks manuales
 
-    public MqttSubscriber(Env env, DecisionService decision, MongoService mongo) {
+    public MqttSubscriber(Env env, IngestStage ingest) {
         this.env = env;
-        this.decision = decision;
-        this.mongo = mongo;
+        this.ingest = ingest;
     }
 
     public void start() throws MqttException {
         this.client = MqttClientFactory.newClient(env);
         this.client.setCallback(this);
 
-        MqttConnectOptions options = new MqttConnectOptions();
+        this.options = new MqttConnectOptions();
         options.setAutomaticReconnect(true);
-        options.setCleanSession(true);
         options.setConnectionTimeout(10);
+        if (env.mqttManualAcks()) {
+            client.setManualAcks(true);
+            acks = new AckSequencer(env.mqttMaxInflight(), this::sendAck, this::requestRedelivery);
+            Metrics.gauge("consumer_mqtt_inflight", "Mensajes recibidos todavía sin PUBACK", acks::inflight);
+            options.setCleanSession(false);
+        } else {
+            options.setCleanSession(true);
+        }
 
         client.connect(options);
+        subscribe();
+    }
 
+    private void subscribe() throws MqttException {
         // Suscripciones NUEVAS
-        client.subscribe("sensors/+/+", 1);
-        client.subscribe("switches/+/+", 1);
-        System.out.println("[consumer] suscripto a: sensors/+/+, switches/+/+");
+        client.subscribe(new String[] {"sensors/+/+", "switches/+/+"}, new int[] {1, 1});
+        System.out.printf("[consumer] clientId=%s suscripto a: sensors/+/+, switches/+/+ (acks manuales=%s)%n",
+                client.getClientId(), acks != null);
+    }
+
+    private void sendAck(int messageId, int qos) {
+        try {
+            client.messageArrivedComplete(messageId, qos);
+        } catch (MqttException e) {
+            // Sin conexión: el broker lo reentrega al retomar la sesión
+            System.err.printf("[consumer] error al confirmar id=%d err=%s%n", messageId, e.getMessage());
+        }
+    }
+
+    /** Corta y retoma la sesión (una vez a la vez) para que el broker reentregue lo no confirmado. */
+    private void requestRedelivery() {
+        if (!redelivering.compareAndSet(false, true)) return;
+        Thread.ofVirtual().name("mqtt-redelivery").start(() -> {
+            try {
+                System.err.printf("[consumer] lectura sin persistir: se retoma la sesión MQTT en %d ms para la reentrega%n",
+                        REDELIVERY_DELAY_MS);
+                Thread.sleep(REDELIVERY_DELAY_MS);
+                // Sin espera de cierre ordenado: el callback puede estar bloqueado en la ventana llena
+                client.disconnectForcibly(0, 5000);
+                acks.reset();
+                while (true) {
+                    try {
+                        client.connect(options);
+                        subscribe();
+                        return;
+                    } catch (MqttException e) {
+                        System.err.printf("[consumer] error al reconectar para la reentrega err=%s%n", e.getMessage());
+                        Thread.sleep(RECONNECT_RETRY_MS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (MqttException e) {
+                System.err.printf("[consumer] error al cortar la sesión para la reentrega err=%s%n", e.getMessage());
+            } finally {
+                redelivering.set(false);
+            }
+        });
+    }
+
+    @Override
+    public void connectComplete(boolean reconnect, String serverURI) {
+        if (!reconnect) return;
+        try {
+            subscribe();
+        } catch (MqttException e) {
+            System.err.println("[consumer] error al re-suscribir tras reconexión: " + e.getMessage());
+        }
     }
 
     @Override
@@ -51,27 +117,16 @@ public class MqttSubscriber implements MqttCallback {
     }
 
     @Override
-    public void messageArrived(String topic, MqttMessage message) {
-        String payload = new String(message.getPayload(), StandardCharsets.UTF_8);
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
         long receivedAt = Instant.now().toEpochMilli();
-
+        // Con la ventana llena se bloquea acá: el broker deja de mandar hasta que se confirme algo
+        Runnable ack = acks != null ? acks.open(message.getId(), message.getQos()) : IngestStage.NO_ACK;
+        if (ack == null) return; // de la sesión anterior: el broker lo reentrega
         try {
-            // Formato NUEVO: parse JSON
-            JsonObject json = JsonParser.parseString(payload).getAsJsonObject();
-            long ts = (json.has("ts") && json.get("ts").isJsonPrimitive())
-                    ? json.get("ts").getAsLong()
-                    : receivedAt;
-
-            // Persistencia: upsert por topic + push con slice 110000
-            mongo.appendByTopic(topic, payload, ts, receivedAt);
-
-            System.out.printf("[consumer] appended topic=%s ts=%d%n", topic, ts);
-
-            // (Opcional) disparar reglas
-            // decision.evaluateIfNeeded(topic, json);
-
+            ingest.submit(topic, message.getPayload(), receivedAt, ack);
         } catch (Exception e) {
-            System.err.printf("[consumer] error topic=%s payload=%s err=%s%n", topic, payload, e.getMessage());
+            IngestStage.redeliver(ack);
+            System.err.printf("[consumer] error al encolar topic=%s err=%s%n", topic, e.getMessage());
         }
     }
 
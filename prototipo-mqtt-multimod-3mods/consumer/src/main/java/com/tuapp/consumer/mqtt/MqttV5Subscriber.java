@@ -0,0 +1,160 @@
+package com.tuapp.consumer.mqtt;
+
+import com.tuapp.consumer.config.Env;
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.pipeline.IngestStage;
+import org.eclipse.paho.mqttv5.client.IMqttToken;
+import org.eclipse.paho.mqttv5.client.MqttAsyncClient;
+import org.eclipse.paho.mqttv5.client.MqttCallback;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.eclipse.paho.mqttv5.client.MqttDisconnectResponse;
+import org.eclipse.paho.mqttv5.common.MqttException;
+import org.eclipse.paho.mqttv5.common.MqttMessage;
+import org.eclipse.paho.mqttv5.common.MqttSubscription;
+import org.eclipse.paho.mqttv5.common.packet.MqttProperties;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Subscriber MQTT v5 (MQTT_VERSION=5), sobre el cliente asíncrono:
+ * - Con MQTT_SHARE_GROUP se suscribe a $share/<grupo>/sensors/+/+ y $share/<grupo>/switches/+/+,
+ *   así N réplicas del consumer se reparten los mensajes en vez de duplicar escrituras.
+ * - El orden por topic entre réplicas depende de la estrategia del broker: Mosquitto reparte mensaje a mensaje
+ *   (round robin); brokers con estrategia "sticky"/por topic lo mantienen. Dentro de una réplica el pipeline lo conserva.
+ * - Con MQTT_MANUAL_ACKS=true (default) el PUBACK sale recién cuando el lote que contiene el mensaje quedó escrito
+ *   (AckSequencer, como máximo MQTT_MAX_INFLIGHT sin confirmar). La sesión es persistente
+ *   (MQTT_SESSION_EXPIRY_S): lo no confirmado se reentrega al reconectar.
+ * - Si una lectura no se pudo persistir no se confirma: tras REDELIVERY_DELAY_MS se corta y se retoma la sesión
+ *   para que el broker reentregue todo lo no confirmado (los PUBACK van en orden, así que el hueco frena al resto).
+ * - Sin acks manuales se reconecta con clean start y se vuelven a pedir las suscripciones en connectComplete.
+ */
+public class MqttV5Subscriber implements MqttCallback {
+    private static final long REDELIVERY_DELAY_MS = 2000;
+    private static final long RECONNECT_RETRY_MS = 5000;
+
+    private final Env env;
+    private final IngestStage ingest;
+    private final AtomicBoolean redelivering = new AtomicBoolean();
+    private MqttAsyncClient client;
+    private MqttConnectionOptions options;
+    private AckSequencer acks; // null sin acks manuales
+
+    public MqttV5Subscriber(Env env, IngestStage ingest) {
+        this.env = env;
+        this.ingest = ingest;
+    }
+
+    public void start() throws MqttException {
+        this.client = MqttClientFactory.newV5Client(env);
+        this.client.setCallback(this);
+
+        this.options = new MqttConnectionOptions();
+        options.setAutomaticReconnect(true);
+        options.setConnectionTimeout(10);
+        options.setReceiveMaximum(env.mqttReceiveMaximum());
+        if (env.mqttManualAcks()) {
+            client.setManualAcks(true);
+            acks = new AckSequencer(env.mqttMaxInflight(), this::sendAck, this::requestRedelivery);
+            Metrics.gauge("consumer_mqtt_inflight", "Mensajes recibidos todavía sin PUBACK", acks::inflight);
+            options.setCleanStart(false);
+            options.setSessionExpiryInterval(env.mqttSessionExpirySeconds());
+        } else {
+            options.setCleanStart(true);
+        }
+
+        client.connect(options).waitForCompletion();
+        subscribe();
+    }
+
+    private void subscribe() throws MqttException {
+        String[] topics = env.subscriptionTopics();
+        MqttSubscription[] subs = new MqttSubscription[topics.length];
+        for (int i = 0; i < topics.length; i++) subs[i] = new MqttSubscription(topics[i], 1);
+        client.subscribe(subs).waitForCompletion();
+        System.out.printf("[consumer] v5 clientId=%s suscripto a: %s (instancias esperadas=%d, acks manuales=%s, receiveMax=%d)%n",
+                client.getClientId(), Arrays.toString(topics), env.consumerInstances(), acks != null,
+                env.mqttReceiveMaximum());
+    }
+
+    private void sendAck(int messageId, int qos) {
+        try {
+            client.messageArrivedComplete(messageId, qos);
+        } catch (MqttException e) {
+            // Sin conexión: el broker lo reentrega al retomar la sesión
+            System.err.printf("[consumer] error al confirmar id=%d err=%s%n", messageId, e.getMessage());
+        }
+    }
+
+    /** Corta y retoma la sesión (una vez a la vez) para que el broker reentregue lo no confirmado. */
+    private void requestRedelivery() {
+        if (!redelivering.compareAndSet(false, true)) return;
+        Thread.ofVirtual().name("mqtt-redelivery").start(() -> {
+            try {
+                System.err.printf("[consumer] lectura sin persistir: se retoma la sesión MQTT en %d ms para la reentrega%n",
+                        REDELIVERY_DELAY_MS);
+                Thread.sleep(REDELIVERY_DELAY_MS);
+                // Sin espera de cierre ordenado: el callback puede estar bloqueado en la ventana llena
+                client.disconnect(0).waitForCompletion();
+                acks.reset();
+                while (true) {
+                    try {
+                        client.connect(options).waitForCompletion();
+                        subscribe();
+                        return;
+                    } catch (MqttException e) {
+                        System.err.printf("[consumer] error al reconectar para la reentrega err=%s%n", e.getMessage());
+                        Thread.sleep(RECONNECT_RETRY_MS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (MqttException e) {
+                System.err.printf("[consumer] error al cortar la sesión para la reentrega err=%s%n", e.getMessage());
+            } finally {
+                redelivering.set(false);
+            }
+        });
+    }
+
+    @Override
+    public void connectComplete(boolean reconnect, String serverURI) {
+        if (!reconnect) return;
+        try {
+            subscribe();
+        } catch (MqttException e) {
+            System.err.println("[consumer] error al re-suscribir tras reconexión: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void disconnected(MqttDisconnectResponse response) {
+        System.err.println("[consumer] conexión MQTT perdida: " + (response != null ? response.getReasonString() : ""));
+    }
+
+    @Override
+    public void mqttErrorOccurred(MqttException exception) {
+        System.err.println("[consumer] error MQTT: " + exception.getMessage());
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
+        long receivedAt = Instant.now().toEpochMilli();
+        // Con la ventana llena se bloquea acá: el broker deja de mandar hasta que se confirme algo
+        Runnable ack = acks != null ? acks.open(message.getId(), message.getQos()) : IngestStage.NO_ACK;
+        if (ack == null) return; // de la sesión anterior: el broker lo reentrega
+        try {
+            ingest.submit(topic, message.getPayload(), receivedAt, ack);
+        } catch (Exception e) {
+            IngestStage.redeliver(ack);
+            System.err.printf("[consumer] error al encolar topic=%s err=%s%n", topic, e.getMessage());
+        }
+    }
+
+    @Override
+    public void deliveryComplete(IMqttToken token) { }
+
+    @Override
+    public void authPacketArrived(int reasonCode, MqttProperties properties) { }
+}
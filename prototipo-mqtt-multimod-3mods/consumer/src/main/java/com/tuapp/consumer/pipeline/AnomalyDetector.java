@@ -0,0 +1,200 @@
+package com.tuapp.consumer.pipeline;
+
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.model.SensorReading;
+import com.tuapp.consumer.service.CommandPublisher;
+import org.bson.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detección de anomalías en línea por patrón de topic (variable ANOMALY), sin historial:
+ * - Por topic y campo numérico guarda media y varianza con peso exponencial (alpha), último valor y ts, y desde
+ *   cuándo no cambia, todo en arrays de double/long (memoria O(1) por topic).
+ * - Tipos: range (fuera de min/max), rate (|Δvalor| / Δs mayor que rate), zscore (|x - media| / max(σ, floor)
+ *   mayor que z, después de warmup lecturas) y stuck (el valor no cambió en stuck ms).
+ * - Al activarse un tipo en un campo se publica {"status":"active",...} en &lt;prefix&gt;/&lt;topic&gt;; cuando el campo
+ *   vuelve a la normalidad, {"status":"cleared",...}. Mientras sigue activo no se repite.
+ * - Formato: "patrón:min=..,max=..,rate=..,z=..,floor=..,warmup=..,alpha=..,stuck=..; patrón:..."
+ *   con comodines MQTT (+, #); gana el primer patrón que coincide y el resto de los topics no se analiza.
+ */
+public class AnomalyDetector {
+
+    public static final String DEFAULT =
+            "sensors/+/temperature:min=-40,max=80,rate=0.05,z=6,floor=0.5; "
+            + "sensors/+/humidity:min=0,max=100,z=6,floor=2; "
+            + "switches/+/power:min=0,max=5000";
+
+    private static final String[] FIELDS = {"temperature", "humidity", "power", "energy", "value"};
+    private static final int RANGE = 1, RATE = 2, ZSCORE = 4, STUCK = 8;
+    private static final String[] KIND_NAMES = {"range", "rate", "zscore", "stuck"};
+
+    /** Regla ya compilada; NaN / 0 = chequeo desactivado. */
+    record Rule(String pattern, String[] levels, double min, double max, double rate, double z, double floor,
+                int warmup, double alpha, long stuckMs) {}
+
+    /** Estado del topic por campo (índices de FIELDS). */
+    private static final class Stats {
+        final Rule rule;
+        final double[] mean = new double[FIELDS.length];
+        final double[] var = new double[FIELDS.length];
+        final double[] last = new double[FIELDS.length];
+        final long[] lastTs = new long[FIELDS.length];
+        final long[] changedAt = new long[FIELDS.length];
+        final long[] count = new long[FIELDS.length];
+        final int[] active = new int[FIELDS.length];
+
+        Stats(Rule rule) { this.rule = rule; }
+    }
+
+    private static final Stats IGNORED = new Stats(null);
+
+    private final List<Rule> rules;
+    private final CommandPublisher publisher;
+    private final String prefix;
+    private final ConcurrentHashMap<String, Stats> topics = new ConcurrentHashMap<>();
+
+    private AnomalyDetector(List<Rule> rules, CommandPublisher publisher, String prefix) {
+        this.rules = rules;
+        this.publisher = publisher;
+        this.prefix = prefix;
+    }
+
+    /** null si la config es "off" o vacía. publisher null = solo métricas. */
+    public static AnomalyDetector parse(String config, CommandPublisher publisher, String prefix) {
+        if (config == null || config.isBlank() || "off".equalsIgnoreCase(config.trim())) return null;
+        if (publisher != null && (prefix.isBlank() || prefix.startsWith("sensors") || prefix.startsWith("switches"))) {
+            // El consumer está suscripto a sensors/+/+ y switches/+/+: se volvería a consumir a sí mismo
+            throw new IllegalArgumentException("ANOMALY_ALERT_PREFIX no puede ser vacío ni empezar con sensors/switches");
+        }
+        List<Rule> rules = new ArrayList<>();
+        for (String raw : config.split(";")) {
+            String text = raw.trim();
+            if (text.isEmpty()) continue;
+            int colon = text.indexOf(':');
+            String pattern = (colon < 0 ? text : text.substring(0, colon)).trim();
+            double min = Double.NaN, max = Double.NaN, rate = Double.NaN, z = Double.NaN, floor = 0, alpha = 0.05;
+            int warmup = 20;
+            long stuck = 0;
+            if (colon >= 0) {
+                for (String opt : text.substring(colon + 1).split(",")) {
+                    String[] kv = opt.trim().split("=", 2);
+                    if (kv.length != 2) throw new IllegalArgumentException("opción inválida en ANOMALY: " + opt);
+                    String v = kv[1].trim();
+                    switch (kv[0].trim().toLowerCase(Locale.ROOT)) {
+                        case "min" -> min = Double.parseDouble(v);
+                        case "max" -> max = Double.parseDouble(v);
+                        case "rate" -> rate = Double.parseDouble(v);
+                        case "z" -> z = Double.parseDouble(v);
+                        case "floor" -> floor = Double.parseDouble(v);
+                        case "warmup" -> warmup = Integer.parseInt(v);
+                        case "alpha" -> alpha = Double.parseDouble(v);
+                        case "stuck" -> stuck = Long.parseLong(v);
+                        default -> throw new IllegalArgumentException("opción desconocida en ANOMALY: " + kv[0]);
+                    }
+                }
+            }
+            if (!(alpha > 0 && alpha <= 1)) throw new IllegalArgumentException("alpha debe estar en (0, 1] en ANOMALY: " + text);
+            rules.add(new Rule(pattern, pattern.split("/"), min, max, rate, z, floor, warmup, alpha, stuck));
+        }
+        return rules.isEmpty() ? null : new AnomalyDetector(rules, publisher, prefix);
+    }
+
+    /** Evalúa la lectura y actualiza las estadísticas del topic. Devuelve la máscara de tipos recién activados. */
+    public int check(SensorReading r) {
+        Stats s = topics.computeIfAbsent(r.topic, t -> {
+            Rule rule = match(t);
+            return rule == null ? IGNORED : new Stats(rule);
+        });
+        if (s == IGNORED) return 0;
+
+        double[] v = {nan(r.temperature), nan(r.humidity), nan(r.power), nan(r.energy), nan(r.value)};
+        long ts = r.ts;
+        int raised = 0;
+        synchronized (s) {
+            Rule rule = s.rule;
+            for (int i = 0; i < v.length; i++) {
+                double x = v[i];
+                if (Double.isNaN(x)) continue;
+                int kinds = 0;
+                long n = s.count[i];
+
+                if (x < rule.min() || x > rule.max()) kinds |= RANGE;
+                if (n > 0) {
+                    long dtMs = ts - s.lastTs[i];
+                    if (!Double.isNaN(rule.rate()) && dtMs > 0
+                            && Math.abs(x - s.last[i]) * 1000.0 / dtMs > rule.rate()) kinds |= RATE;
+                    if (x != s.last[i]) s.changedAt[i] = ts;
+                    if (rule.stuckMs() > 0 && ts - s.changedAt[i] >= rule.stuckMs()) kinds |= STUCK;
+                } else {
+                    s.changedAt[i] = ts;
+                }
+                double mean = s.mean[i], std = Math.sqrt(s.var[i]);
+                if (!Double.isNaN(rule.z()) && n >= rule.warmup()
+                        && Math.abs(x - mean) / Math.max(std, rule.floor()) > rule.z()) kinds |= ZSCORE;
+
+                // Media/varianza exponenciales (actualización incremental, sin buffer)
+                if (n == 0) {
+                    s.mean[i] = x;
+                    s.var[i] = 0;
+                } else {
+                    double diff = x - s.mean[i];
+                    double incr = rule.alpha() * diff;
+                    s.mean[i] += incr;
+                    s.var[i] = (1 - rule.alpha()) * (s.var[i] + diff * incr);
+                }
+                if (ts >= s.lastTs[i] || n == 0) {
+                    s.last[i] = x;
+                    s.lastTs[i] = ts;
+                }
+                s.count[i] = n + 1;
+
+                int newly = kinds & ~s.active[i];
+                if (newly != 0) {
+                    raised |= newly;
+                    alert(r, i, "active", newly, x, mean, std);
+                } else if (kinds == 0 && s.active[i] != 0) {
+                    alert(r, i, "cleared", s.active[i], x, mean, std);
+                }
+                s.active[i] = kinds;
+            }
+        }
+        return raised;
+    }
+
+    private void alert(SensorReading r, int field, String status, int kinds, double x, double mean, double std) {
+        List<String> names = new ArrayList<>(KIND_NAMES.length);
+        for (int k = 0; k < KIND_NAMES.length; k++) {
+            if ((kinds & (1 << k)) == 0) continue;
+            names.add(KIND_NAMES[k]);
+            if ("active".equals(status)) Metrics.anomaly(r.topic, KIND_NAMES[k]);
+        }
+        if (publisher == null) return;
+        String json = new Document("status", status)
+                .append("kinds", names)
+                .append("field", FIELDS[field])
+                .append("value", x)
+                .append("mean", mean)
+                .append("std", std)
+                .append("ts", r.ts)
+                .append("receivedAt", r.receivedAt)
+                .toJson();
+        publisher.publish(prefix + "/" + r.topic, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Rule match(String topic) {
+        String[] levels = topic.split("/");
+        for (Rule rule : rules) {
+            if (DeadbandFilter.matches(rule.levels(), levels)) return rule;
+        }
+        return null;
+    }
+
+    private static double nan(Double d) {
+        return d == null ? Double.NaN : d;
+    }
+}
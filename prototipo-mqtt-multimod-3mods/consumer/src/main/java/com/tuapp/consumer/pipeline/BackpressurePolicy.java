@@ -0,0 +1,21 @@
+package com.tuapp.consumer.pipeline;
+
+/**
+ * Qué hacer cuando la cola de un shard está llena.
+ * - BLOCK: el callback MQTT espera (el broker deja de entregarnos hasta que haya lugar).
+ * - DROP_OLDEST: se descarta la lectura más vieja del shard para hacer lugar.
+ * - SPILL: se vuelca a un archivo del shard y se reprocesa en orden cuando la cola se vacía.
+ */
+public enum BackpressurePolicy {
+    BLOCK, DROP_OLDEST, SPILL;
+
+    public static BackpressurePolicy parse(String v) {
+        return switch (v.trim().toLowerCase().replace('-', '_')) {
+            case "block" -> BLOCK;
+            case "drop_oldest", "drop" -> DROP_OLDEST;
+            case "spill" -> SPILL;
+            default -> throw new IllegalArgumentException("INGEST_BACKPRESSURE inválido: " + v
+                    + " (usar block, drop_oldest o spill)");
+        };
+    }
+}
@@ -0,0 +1,143 @@
+package com.tuapp.consumer.pipeline;
+
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.model.SensorReading;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Filtro de banda muerta por patrón de topic (variable DEADBAND), antes de persistir:
+ * - Una lectura se guarda si algún campo numérico cambió más que abs o que rel * |último guardado|
+ *   (sin abs ni rel: cualquier cambio), si cambió 'state', o si pasaron heartbeat ms desde la última guardada.
+ * - Lecturas sin campos conocidos (temperature, humidity, power, energy, value, state) se guardan siempre.
+ * - Formato: "patrón:abs=0.1,rel=0.01,heartbeat=600000; patrón:..." con comodines MQTT (+, #);
+ *   gana el primer patrón que coincide y los topics que no coinciden con ninguno no se filtran.
+ */
+public class DeadbandFilter {
+
+    /** Regla ya compilada; abs/rel en NaN = no configurado. */
+    record Band(String pattern, String[] levels, double abs, double rel, long heartbeatMs) {}
+
+    /** Último valor guardado del topic (índices: temperature, humidity, power, energy, value). */
+    private static final class Last {
+        final Band band;
+        final double[] values = new double[5];
+        final boolean[] present = new boolean[5];
+        Boolean state;
+        long storedAt = Long.MIN_VALUE;
+
+        Last(Band band) { this.band = band; }
+    }
+
+    private static final Last UNFILTERED = new Last(null);
+
+    private final List<Band> bands;
+    private final ConcurrentHashMap<String, Last> topics = new ConcurrentHashMap<>();
+
+    private DeadbandFilter(List<Band> bands) {
+        this.bands = bands;
+    }
+
+    /** null si la config es "off" o vacía. */
+    public static DeadbandFilter parse(String config) {
+        if (config == null || config.isBlank() || "off".equalsIgnoreCase(config.trim())) return null;
+        List<Band> bands = new ArrayList<>();
+        for (String raw : config.split(";")) {
+            String text = raw.trim();
+            if (text.isEmpty()) continue;
+            int colon = text.indexOf(':');
+            String pattern = (colon < 0 ? text : text.substring(0, colon)).trim();
+            double abs = Double.NaN, rel = Double.NaN;
+            long heartbeat = Long.MAX_VALUE;
+            if (colon >= 0) {
+                for (String opt : text.substring(colon + 1).split(",")) {
+                    String[] kv = opt.trim().split("=", 2);
+                    if (kv.length != 2) throw new IllegalArgumentException("opción inválida en DEADBAND: " + opt);
+                    switch (kv[0].trim().toLowerCase(Locale.ROOT)) {
+                        case "abs" -> abs = Double.parseDouble(kv[1].trim());
+                        case "rel" -> rel = Double.parseDouble(kv[1].trim());
+                        case "heartbeat" -> heartbeat = Long.parseLong(kv[1].trim());
+                        default -> throw new IllegalArgumentException("opción desconocida en DEADBAND: " + kv[0]);
+                    }
+                }
+            }
+            bands.add(new Band(pattern, pattern.split("/"), abs, rel, heartbeat));
+        }
+        return bands.isEmpty() ? null : new DeadbandFilter(bands);
+    }
+
+    /** true si hay que guardar la lectura (y en ese caso pasa a ser la última guardada). */
+    public boolean shouldStore(SensorReading r) {
+        Last last = topics.computeIfAbsent(r.topic, t -> {
+            Band b = match(t);
+            return b == null ? UNFILTERED : new Last(b);
+        });
+        if (last == UNFILTERED) return true;
+
+        double[] v = {nan(r.temperature), nan(r.humidity), nan(r.power), nan(r.energy), nan(r.value)};
+        synchronized (last) {
+            boolean store = last.storedAt == Long.MIN_VALUE
+                    || r.receivedAt - last.storedAt >= last.band.heartbeatMs()
+                    || (r.state != null && !r.state.equals(last.state))
+                    || changed(last, v);
+            boolean any = r.state != null;
+            for (double x : v) any |= !Double.isNaN(x);
+            if (!any) store = true;
+
+            if (store) {
+                for (int i = 0; i < v.length; i++) {
+                    if (!Double.isNaN(v[i])) {
+                        last.values[i] = v[i];
+                        last.present[i] = true;
+                    }
+                }
+                if (r.state != null) last.state = r.state;
+                last.storedAt = r.receivedAt;
+            } else {
+                Metrics.deadbandFiltered(r.topic);
+            }
+            return store;
+        }
+    }
+
+    private static boolean changed(Last last, double[] v) {
+        Band b = last.band;
+        for (int i = 0; i < v.length; i++) {
+            if (Double.isNaN(v[i])) continue;
+            if (!last.present[i]) return true;
+            double diff = Math.abs(v[i] - last.values[i]);
+            if (Double.isNaN(b.abs()) && Double.isNaN(b.rel())) {
+                if (diff > 0) return true;
+                continue;
+            }
+            if (!Double.isNaN(b.abs()) && diff > b.abs()) return true;
+            if (!Double.isNaN(b.rel()) && diff > b.rel() * Math.abs(last.values[i])) return true;
+        }
+        return false;
+    }
+
+    private Band match(String topic) {
+        String[] levels = topic.split("/");
+        for (Band b : bands) {
+            if (matches(b.levels(), levels)) return b;
+        }
+        return null;
+    }
+
+    /** Match de filtro MQTT: '+' un nivel, '#' el resto. */
+    static boolean matches(String[] filter, String[] topic) {
+        for (int i = 0; i < filter.length; i++) {
+            if ("#".equals(filter[i])) return true;
+            if (i >= topic.length) return false;
+            if (!"+".equals(filter[i]) && !filter[i].equals(topic[i])) return false;
+        }
+        return filter.length == topic.length;
+    }
+
+    private static double nan(Double d) {
+        return d == null ? Double.NaN : d;
+    }
+}
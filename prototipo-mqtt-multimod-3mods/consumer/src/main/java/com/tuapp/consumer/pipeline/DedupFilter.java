@@ -0,0 +1,190 @@
+package com.tuapp.consumer.pipeline;
+
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.metrics.RateLimitedLog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Descarta redeliveries de QoS 1 antes de persistir:
+ * - Clave por mensaje = hash de (ts, payload crudo); se busca en una ventana deslizante por topic
+ *   con las últimas windowSize claves (anillo + tabla abierta, sin boxing).
+ * - La clave se registra recién cuando el mensaje se confirma (recordOnAck): uno que no se pudo guardar y
+ *   se reentrega no pasa por duplicado. Dos copias en vuelo a la vez pueden guardarse ambas (mejor que perder una).
+ * - Memoria acotada: windowSize claves por topic y como máximo maxTopics topics; al superarlo se expulsa
+ *   la ventana del topic usado hace más tiempo (LRU), los topics activos conservan la suya.
+ */
+public class DedupFilter {
+    private final int windowSize;
+    private final int maxTopics;
+    // accessOrder=true: get() mueve el topic al final; el primero es el LRU (protegido por synchronized(windows))
+    private final LinkedHashMap<String, Window> windows;
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder evicted;
+    private final RateLimitedLog evictLog;
+
+    public DedupFilter(int windowSize, int maxTopics) {
+        this(windowSize, maxTopics, 5000);
+    }
+
+    public DedupFilter(int windowSize, int maxTopics, long logIntervalMs) {
+        if (windowSize <= 0 || maxTopics <= 0) {
+            throw new IllegalArgumentException("DEDUP_WINDOW y DEDUP_MAX_TOPICS deben ser > 0");
+        }
+        this.windowSize = windowSize;
+        this.maxTopics = maxTopics;
+        this.evictLog = new RateLimitedLog(System.err, logIntervalMs);
+        this.evicted = Metrics.counter("consumer_dedup_evicted_total", "Ventanas de dedup expulsadas por DEDUP_MAX_TOPICS");
+        this.windows = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+                if (size() <= DedupFilter.this.maxTopics) return false;
+                evicted.increment();
+                evictLog.log("[consumer] dedup: más de %d topics, se expulsa la ventana de %s (expulsadas=%d)",
+                        DedupFilter.this.maxTopics, eldest.getKey(), evicted.sum());
+                return true;
+            }
+        };
+        Metrics.gauge("consumer_dedup_topics", "Topics con ventana de deduplicación", this::topics);
+        Metrics.gauge("consumer_dedup_hit_ratio", "Duplicados / mensajes revisados desde el arranque", this::hitRatio);
+    }
+
+    /** true si la clave (ver key) ya se confirmó dentro de la ventana del topic. No registra nada. */
+    public boolean isDuplicate(String topic, long key) {
+        checks.increment();
+        Window w;
+        synchronized (windows) {
+            w = windows.get(topic);
+        }
+        boolean dup = w != null && w.contains(key);
+        if (dup) {
+            hits.increment();
+            Metrics.duplicate(topic);
+        }
+        return dup;
+    }
+
+    /** Registra la clave en la ventana del topic (la más vieja sale si está llena). */
+    public void record(String topic, long key) {
+        Window w;
+        synchronized (windows) {
+            w = windows.computeIfAbsent(topic, t -> new Window(windowSize));
+        }
+        w.add(key);
+    }
+
+    /**
+     * Envuelve el ack del mensaje: al confirmarlo registra la clave y después confirma; si se pide la reentrega
+     * no registra nada, así la copia reentregada se procesa y se guarda.
+     */
+    public IngestStage.RedeliverableAck recordOnAck(String topic, long key, Runnable ack) {
+        return new IngestStage.RedeliverableAck() {
+            @Override
+            public void run() {
+                record(topic, key);
+                ack.run();
+            }
+
+            @Override
+            public void redeliver() {
+                IngestStage.redeliver(ack);
+            }
+        };
+    }
+
+    public int topics() {
+        synchronized (windows) {
+            return windows.size();
+        }
+    }
+
+    public double hitRatio() {
+        long n = checks.sum();
+        return n == 0 ? 0.0 : (double) hits.sum() / n;
+    }
+
+    /** FNV-1a 64 del payload mezclado con ts; 0 queda reservado para "vacío". */
+    public static long key(long ts, byte[] payload) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : payload) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= ts * 0x9E3779B97F4A7C15L;
+        h ^= (h >>> 31);
+        return h == 0 ? 1 : h;
+    }
+
+    /** Últimas N claves de un topic: anillo para el orden de expulsión + tabla de sondeo lineal para buscar. */
+    private static final class Window {
+        private final long[] ring;
+        private final long[] table;
+        private final int mask;
+        private int next;
+        private int size;
+
+        Window(int capacity) {
+            this.ring = new long[capacity];
+            this.table = new long[Integer.highestOneBit(capacity * 2 - 1) << 1];
+            this.mask = table.length - 1;
+        }
+
+        synchronized void add(long key) {
+            if (find(key)) return;
+            if (size == ring.length) {
+                remove(ring[next]);
+            } else {
+                size++;
+            }
+            ring[next] = key;
+            next = (next + 1) % ring.length;
+            insert(key);
+        }
+
+        synchronized boolean contains(long key) {
+            return find(key);
+        }
+
+        private int slot(long key) {
+            return (int) (key ^ (key >>> 32)) & mask;
+        }
+
+        private boolean find(long key) {
+            for (int i = slot(key); table[i] != 0; i = (i + 1) & mask) {
+                if (table[i] == key) return true;
+            }
+            return false;
+        }
+
+        private void insert(long key) {
+            int i = slot(key);
+            while (table[i] != 0) i = (i + 1) & mask;
+            table[i] = key;
+        }
+
+        /** Borrado con corrimiento hacia atrás (sin marcas de borrado). */
+        private void remove(long key) {
+            int i = slot(key);
+            while (table[i] != key) {
+                if (table[i] == 0) return;
+                i = (i + 1) & mask;
+            }
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (table[j] == 0) break;
+                int home = slot(table[j]);
+                // Mover table[j] a i si su posición ideal no queda entre i (excl.) y j (incl.)
+                boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                if (!between) {
+                    table[i] = table[j];
+                    i = j;
+                }
+            }
+            table[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.tuapp.consumer.pipeline;
+
+/**
+ * Etapa de ingesta: recibe el mensaje MQTT crudo tal como llegó al callback.
+ */
+public interface IngestStage {
+    Runnable NO_ACK = () -> { };
+
+    /**
+     * Ack que además puede pedir la reentrega del mensaje cuando no se pudo persistir
+     * (acks manuales: el broker vuelve a mandar lo no confirmado al retomar la sesión).
+     */
+    interface RedeliverableAck extends Runnable {
+        void redeliver();
+    }
+
+    /** No confirma el mensaje y, si el ack lo permite, pide que el broker lo reentregue. */
+    static void redeliver(Runnable ack) {
+        if (ack instanceof RedeliverableAck r) r.redeliver();
+    }
+
+    void submit(String topic, byte[] payload, long receivedAt);
+
+    /**
+     * Igual que submit, pero avisa con ack cuando el mensaje quedó persistido (o se descartó a propósito).
+     * Se llama exactamente una vez a ack o a redeliver(ack), este último si no se pudo persistir.
+     * Por defecto la etapa es sincrónica: se confirma al volver.
+     */
+    default void submit(String topic, byte[] payload, long receivedAt, Runnable ack) {
+        submit(topic, payload, receivedAt);
+        ack.run();
+    }
+}
@@ -0,0 +1,127 @@
+package com.tuapp.consumer.pipeline;
+
+import com.tuapp.consumer.db.EnergyAccumulator;
+import com.tuapp.consumer.db.RollupAggregator;
+import com.tuapp.consumer.db.TopicAppender;
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.metrics.RateLimitedLog;
+import com.tuapp.consumer.model.SensorReading;
+import com.tuapp.consumer.model.SensorReadingParser;
+import com.tuapp.consumer.presence.PresenceTracker;
+import com.tuapp.consumer.service.DecisionService;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Procesamiento de un mensaje: parse JSON en una pasada a SensorReading, descarte de duplicados,
+ * presencia, reglas, anomalías, rollups, energía acumulada, banda muerta y persistencia por topic.
+ * Se usa directo desde el callback o como etapa final de los workers del pipeline.
+ * Los logs por mensaje van con límite de frecuencia; el detalle queda en las métricas.
+ */
+public class MessageProcessor implements IngestStage {
+    private final DecisionService decision;
+    private final TopicAppender store;
+    private final DedupFilter dedup; // null = sin deduplicación
+    private final RollupAggregator rollups; // null = sin rollups
+    private final EnergyAccumulator energy; // null = sin energía acumulada
+    private final DeadbandFilter deadband; // null = se guarda todo
+    private final PresenceTracker presence; // null = sin presencia
+    private final AnomalyDetector anomalies; // null = sin detección
+    private final RateLimitedLog appendedLog;
+    private final RateLimitedLog errorLog;
+
+    public MessageProcessor(DecisionService decision, TopicAppender store, DedupFilter dedup,
+                            RollupAggregator rollups, EnergyAccumulator energy, DeadbandFilter deadband, PresenceTracker presence,
+                            AnomalyDetector anomalies, long logIntervalMs) {
+        this.decision = decision;
+        this.store = store;
+        this.dedup = dedup;
+        this.rollups = rollups;
+        this.energy = energy;
+        this.deadband = deadband;
+        this.presence = presence;
+        this.anomalies = anomalies;
+        this.appendedLog = new RateLimitedLog(System.out, logIntervalMs);
+        this.errorLog = new RateLimitedLog(System.err, logIntervalMs);
+    }
+
+    @Override
+    public void submit(String topic, byte[] payload, long receivedAt) {
+        submit(topic, payload, receivedAt, NO_ACK);
+    }
+
+    /**
+     * ack se llama cuando la lectura quedó escrita según el destino (lote en Mongo, spool local)
+     * o en cuanto se descarta (JSON inválido, duplicado, banda muerta, comando propio).
+     * Si el destino falla (Mongo en "single", batch o spool cerrados o interrumpidos) no se confirma:
+     * se pide la reentrega y el broker la vuelve a mandar.
+     */
+    @Override
+    public void submit(String topic, byte[] payload, long receivedAt, Runnable ack) {
+        // Los comandos del motor de reglas (switches/<room>/<sufijo>) entran por switches/+/+ pero no son lecturas
+        if (decision.isCommandTopic(topic)) {
+            ack.run();
+            return;
+        }
+        Metrics.messageReceived(topic);
+
+        // Formato NUEVO: parse JSON tipado (ts cae a receivedAt si no viene)
+        SensorReading reading;
+        try {
+            reading = SensorReadingParser.parse(topic, payload, receivedAt);
+        } catch (IllegalArgumentException e) {
+            Metrics.parseFailed(topic);
+            errorLog.log("[consumer] payload inválido topic=%s payload=%s err=%s",
+                    topic, new String(payload, StandardCharsets.UTF_8), e.getMessage());
+            ack.run();
+            return;
+        }
+        // Redelivery QoS 1 (mismo ts y mismo payload ya confirmado): no se vuelve a evaluar ni a guardar
+        if (dedup != null) {
+            long key = DedupFilter.key(reading.ts, payload);
+            if (dedup.isDuplicate(topic, key)) {
+                ack.run();
+                return;
+            }
+            // La clave entra a la ventana recién con el ack; si se pide la reentrega, la copia nueva no es duplicado
+            ack = dedup.recordOnAck(topic, key, ack);
+        }
+        Metrics.deviceLag(topic, receivedAt - reading.ts);
+        if (presence != null) presence.seen(reading);
+
+        // Reglas antes de persistir: la reacción no espera a Mongo
+        try {
+            decision.onReading(reading);
+        } catch (Exception e) {
+            errorLog.log("[consumer] reglas: error topic=%s err=%s", topic, e.getMessage());
+        }
+
+        // Anomalías en la misma pasada que persiste: la alerta sale sin esperar a Mongo
+        if (anomalies != null) {
+            try {
+                anomalies.check(reading);
+            } catch (Exception e) {
+                errorLog.log("[consumer] anomalías: error topic=%s err=%s", topic, e.getMessage());
+            }
+        }
+
+        try {
+            // Rollups y energía con todas las lecturas; la banda muerta evita escrituras de 'raws' y de los sinks
+            // secundarios (SinkFanout envuelve a store)
+            if (rollups != null) rollups.add(reading);
+            if (energy != null) energy.add(reading);
+            if (deadband != null && !deadband.shouldStore(reading)) {
+                ack.run();
+                return;
+            }
+
+            // Persistencia: upsert por topic + push con slice 110000 (en modo batch solo encola)
+            store.appendByTopic(reading, ack);
+
+            appendedLog.log("[consumer] appended topic=%s ts=%d", topic, reading.ts);
+        } catch (Exception e) {
+            IngestStage.redeliver(ack);
+            errorLog.log("[consumer] error topic=%s err=%s (sin confirmar)", topic, e.getMessage());
+        }
+    }
+}
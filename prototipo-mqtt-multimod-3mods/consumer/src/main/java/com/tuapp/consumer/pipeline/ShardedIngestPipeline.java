@@ -0,0 +1,273 @@
+package com.tuapp.consumer.pipeline;
+
+import com.tuapp.consumer.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pipeline entre el callback MQTT y la persistencia:
+ * - N shards, cada uno con una cola acotada y un worker (virtual o de plataforma).
+ * - El shard se elige por hash del topic: mismo topic, mismo worker, mismo orden.
+ * - Cola llena: BLOCK, DROP_OLDEST o SPILL según INGEST_BACKPRESSURE.
+ * - Por shard se mide profundidad de cola y tiempo de espera (encolado -> inicio de proceso).
+ * - El ack de cada mensaje viaja con él hasta la persistencia; los descartados y los volcados a disco se confirman
+ *   al descartarse / volcarse (lo volcado ya quedó en disco local). Si no se pudo encolar, volcar o procesar,
+ *   no se confirma y se pide la reentrega.
+ */
+public class ShardedIngestPipeline implements IngestStage, AutoCloseable {
+
+    private record Item(String topic, byte[] payload, long receivedAt, long enqueuedNanos, Runnable ack) {}
+
+    /** Foto de las métricas de un shard. */
+    public record ShardStats(int shard, int depth, int capacity, long spilledPending,
+                             long enqueued, long processed, long dropped, long spilled,
+                             double avgWaitMs, double maxWaitMs) {}
+
+    private final IngestStage downstream;
+    private final BackpressurePolicy policy;
+    private final Shard[] shards;
+    private final long reportMs;
+    private final Thread reporter;
+    private volatile boolean running = true;
+
+    public ShardedIngestPipeline(IngestStage downstream, int shardCount, int queueCapacity,
+                                 BackpressurePolicy policy, Path spillDir,
+                                 boolean virtualThreads, long reportMs) {
+        if (shardCount <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("INGEST_SHARDS e INGEST_QUEUE_CAPACITY deben ser > 0");
+        }
+        this.downstream = downstream;
+        this.policy = policy;
+        this.reportMs = reportMs;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            SpillFile spill = policy == BackpressurePolicy.SPILL ? new SpillFile(spillDir, i) : null;
+            shards[i] = new Shard(i, queueCapacity, spill);
+            Thread.Builder builder = virtualThreads
+                    ? Thread.ofVirtual().name("ingest-shard-" + i)
+                    : Thread.ofPlatform().daemon(true).name("ingest-shard-" + i);
+            shards[i].worker = builder.start(shards[i]::runLoop);
+
+            Shard s = shards[i];
+            String id = String.valueOf(i);
+            Metrics.gauge("consumer_ingest_queue_depth", "Mensajes en la cola del shard", s.queue::size, "shard", id);
+            Metrics.gauge("consumer_ingest_spill_pending", "Mensajes volcados a disco sin reprocesar",
+                    () -> s.snapshot(false).spilledPending(), "shard", id);
+        }
+
+        this.reporter = Thread.ofPlatform().daemon(true).name("ingest-reporter").unstarted(this::reportLoop);
+        if (reportMs > 0) reporter.start();
+    }
+
+    @Override
+    public void submit(String topic, byte[] payload, long receivedAt) {
+        submit(topic, payload, receivedAt, NO_ACK);
+    }
+
+    @Override
+    public void submit(String topic, byte[] payload, long receivedAt, Runnable ack) {
+        if (!running) throw new IllegalStateException("pipeline cerrado");
+        shardFor(topic).enqueue(new Item(topic, payload, receivedAt, System.nanoTime(), ack));
+    }
+
+    private Shard shardFor(String topic) {
+        return shards[Math.floorMod(topic.hashCode(), shards.length)];
+    }
+
+    public List<ShardStats> stats() {
+        List<ShardStats> out = new ArrayList<>(shards.length);
+        for (Shard s : shards) out.add(s.snapshot(false));
+        return out;
+    }
+
+    private void reportLoop() {
+        while (running) {
+            try {
+                Thread.sleep(reportMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Shard s : shards) {
+                ShardStats st = s.snapshot(true);
+                System.out.printf("[consumer] ingest shard=%d depth=%d/%d spillPending=%d enq=%d done=%d dropped=%d spilled=%d waitAvgMs=%.2f waitMaxMs=%.2f%n",
+                        st.shard(), st.depth(), st.capacity(), st.spilledPending(), st.enqueued(), st.processed(),
+                        st.dropped(), st.spilled(), st.avgWaitMs(), st.maxWaitMs());
+            }
+        }
+    }
+
+    /** Deja de aceptar mensajes y espera a que cada shard vacíe su cola y lo que tenga volcado a disco. */
+    @Override
+    public void close() {
+        running = false;
+        reporter.interrupt();
+        for (Shard s : shards) {
+            try {
+                s.worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            s.closeSpill();
+        }
+    }
+
+    private final class Shard {
+        private final int id;
+        private final ArrayBlockingQueue<Item> queue;
+        private final SpillFile spill;
+        private final Object spillLock = new Object();
+        private Thread worker;
+
+        private final AtomicLong enqueued = new AtomicLong();
+        private final AtomicLong processed = new AtomicLong();
+        private final LongAdder dropped; // consumer_ingest_dropped_total{shard}
+        private final AtomicLong spilled = new AtomicLong();
+        // Espera acumulada en la ventana de reporte (solo las escribe el worker)
+        private volatile long windowWaitMicros;
+        private volatile long windowCount;
+        private volatile long windowMaxWaitMicros;
+
+        Shard(int id, int capacity, SpillFile spill) {
+            this.id = id;
+            this.dropped = Metrics.counter("consumer_ingest_dropped_total", "Mensajes descartados por backpressure",
+                    "shard", String.valueOf(id));
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.spill = spill;
+        }
+
+        void enqueue(Item item) {
+            enqueued.incrementAndGet();
+            switch (policy) {
+                case BLOCK -> {
+                    try {
+                        queue.put(item);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped.increment();
+                        IngestStage.redeliver(item.ack());
+                    }
+                }
+                case DROP_OLDEST -> {
+                    while (!queue.offer(item)) {
+                        Item oldest = queue.poll();
+                        if (oldest != null) {
+                            dropped.increment();
+                            oldest.ack().run();
+                        }
+                    }
+                }
+                case SPILL -> {
+                    synchronized (spillLock) {
+                        // Si ya hay algo volcado, lo nuevo también va a disco para no adelantarse
+                        if (!spill.hasPending() && queue.offer(item)) return;
+                        try {
+                            spill.append(item.topic(), item.payload(), item.receivedAt());
+                            // El PUBACK sale solo con el registro en disco (fsync); sin ack pendiente alcanza el buffer
+                            if (item.ack() != NO_ACK) spill.sync();
+                            spilled.incrementAndGet();
+                        } catch (IOException e) {
+                            dropped.increment();
+                            System.err.printf("[consumer] ingest shard=%d: error al volcar topic=%s err=%s%n",
+                                    id, item.topic(), e.getMessage());
+                            IngestStage.redeliver(item.ack());
+                            return;
+                        }
+                        item.ack().run();
+                    }
+                }
+            }
+        }
+
+        void runLoop() {
+            while (true) {
+                Item item;
+                try {
+                    item = queue.poll(200, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (item != null) {
+                    recordWait(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - item.enqueuedNanos()));
+                    process(item.topic(), item.payload(), item.receivedAt(), item.ack());
+                    continue;
+                }
+                // Cola vacía: reprocesar lo volcado (más nuevo que todo lo que pasó por la cola)
+                if (spill != null && replaySpill()) continue;
+                if (!running) return;
+            }
+        }
+
+        /** Devuelve true si había algo para reprocesar. */
+        private boolean replaySpill() {
+            Path file;
+            synchronized (spillLock) {
+                if (!spill.hasPending()) return false;
+                try {
+                    file = spill.takeForReplay();
+                } catch (IOException e) {
+                    System.err.printf("[consumer] ingest shard=%d: error al rotar spill err=%s%n", id, e.getMessage());
+                    return false;
+                }
+            }
+            if (file == null) return false;
+            try {
+                SpillFile.replay(file, (topic, payload, receivedAt) -> {
+                    recordWait(TimeUnit.MILLISECONDS.toMicros(Math.max(0, System.currentTimeMillis() - receivedAt)));
+                    process(topic, payload, receivedAt, NO_ACK);
+                });
+            } catch (IOException e) {
+                System.err.printf("[consumer] ingest shard=%d: error al leer spill %s err=%s%n", id, file, e.getMessage());
+                return false;
+            }
+            return true;
+        }
+
+        private void process(String topic, byte[] payload, long receivedAt, Runnable ack) {
+            try {
+                downstream.submit(topic, payload, receivedAt, ack);
+            } catch (Exception e) {
+                IngestStage.redeliver(ack);
+                System.err.printf("[consumer] ingest shard=%d: error topic=%s err=%s%n", id, topic, e.getMessage());
+            }
+            processed.incrementAndGet();
+        }
+
+        private void recordWait(long micros) {
+            windowWaitMicros += micros;
+            windowCount++;
+            if (micros > windowMaxWaitMicros) windowMaxWaitMicros = micros;
+        }
+
+        ShardStats snapshot(boolean resetWindow) {
+            long n = windowCount;
+            double avg = n == 0 ? 0.0 : windowWaitMicros / 1000.0 / n;
+            double max = windowMaxWaitMicros / 1000.0;
+            if (resetWindow) {
+                // Carrera benigna con el worker: a lo sumo se pierde una muestra de la ventana
+                windowWaitMicros = 0;
+                windowCount = 0;
+                windowMaxWaitMicros = 0;
+            }
+            long spillPending;
+            synchronized (spillLock) {
+                spillPending = spill == null ? 0 : spill.pendingCount();
+            }
+            return new ShardStats(id, queue.size(), queue.size() + queue.remainingCapacity(), spillPending,
+                    enqueued.get(), processed.get(), dropped.sum(), spilled.get(), avg, max);
+        }
+
+        void closeSpill() {
+            if (spill == null) return;
+            synchronized (spillLock) {
+                spill.close();
+            }
+        }
+    }
+}
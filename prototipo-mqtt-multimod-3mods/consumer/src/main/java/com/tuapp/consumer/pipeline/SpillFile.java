@@ -0,0 +1,132 @@
+package com.tuapp.consumer.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Archivo de desborde de un shard (política SPILL).
+ * - append: agrega un registro [topic, receivedAt, len, bytes] al archivo activo (en el buffer);
+ *   sync() lo lleva al disco (flush + fsync) antes de confirmar el mensaje al broker.
+ * - takeForReplay: cierra el archivo activo y lo renombra a ".replay" para que el worker lo lea
+ *   mientras los productores vuelven a usar la cola (o un archivo activo nuevo).
+ * No es thread-safe: el shard lo usa siempre bajo su propio lock.
+ */
+final class SpillFile {
+
+    interface RecordHandler {
+        void handle(String topic, byte[] payload, long receivedAt);
+    }
+
+    private final Path active;
+    private final Path replay;
+    private FileChannel channel;
+    private DataOutputStream out;
+    private long pending;
+
+    SpillFile(Path dir, int shard) {
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("no se pudo crear INGEST_SPILL_DIR " + dir, e);
+        }
+        this.active = dir.resolve("shard-" + shard + ".spill");
+        this.replay = dir.resolve("shard-" + shard + ".replay");
+        // Restos de una corrida anterior: se reprocesan antes que lo nuevo
+        if (Files.exists(active) || Files.exists(replay)) pending = -1;
+    }
+
+    /** true si hay registros volcados sin reprocesar (incluye restos de una corrida anterior). */
+    boolean hasPending() {
+        return pending != 0;
+    }
+
+    long pendingCount() {
+        return Math.max(pending, 0);
+    }
+
+    void append(String topic, byte[] payload, long receivedAt) throws IOException {
+        if (out == null) {
+            channel = FileChannel.open(active, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        }
+        out.writeUTF(topic);
+        out.writeLong(receivedAt);
+        out.writeInt(payload.length);
+        out.write(payload);
+        if (pending < 0) pending = 0;
+        pending++;
+    }
+
+    /** Vacía el buffer y hace fsync de los datos: lo volcado sobrevive a una caída del proceso o del equipo. */
+    void sync() throws IOException {
+        if (out == null) return;
+        out.flush();
+        channel.force(false);
+    }
+
+    /**
+     * Mueve el archivo activo a ".replay" (si no quedó uno sin terminar de una corrida previa).
+     * Devuelve el archivo a reprocesar o null si no hay nada.
+     */
+    Path takeForReplay() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            channel = null;
+        }
+        pending = 0;
+        if (Files.exists(replay)) {
+            // Un replay anterior quedó a medias: primero ese; el activo queda para la próxima vuelta
+            if (Files.exists(active)) pending = -1;
+            return replay;
+        }
+        if (!Files.exists(active)) return null;
+        Files.move(active, replay, StandardCopyOption.ATOMIC_MOVE);
+        return replay;
+    }
+
+    /** Lee el archivo de replay en orden y lo borra al terminar. Devuelve la cantidad de registros. */
+    static long replay(Path file, RecordHandler handler) throws IOException {
+        long n = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                String topic;
+                try {
+                    topic = in.readUTF();
+                } catch (EOFException eof) {
+                    break;
+                }
+                long receivedAt = in.readLong();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                handler.handle(topic, payload, receivedAt);
+                n++;
+            }
+        } catch (EOFException truncated) {
+            // Último registro incompleto (corte durante la escritura): se descarta
+            System.err.printf("[consumer] spill: registro truncado al final de %s%n", file);
+        }
+        Files.deleteIfExists(file);
+        return n;
+    }
+
+    void close() {
+        try {
+            if (out != null) out.close();
+        } catch (IOException ignored) {}
+        out = null;
+        channel = null;
+    }
+}
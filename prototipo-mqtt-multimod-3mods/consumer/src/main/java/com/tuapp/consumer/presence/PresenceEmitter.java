@@ -0,0 +1,135 @@
+package com.tuapp.consumer.presence;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.service.CommandPublisher;
+import org.bson.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.setOnInsert;
+
+/**
+ * Saca los eventos de presencia del camino de los mensajes (cola + hilo propio):
+ * - MQTT: &lt;prefix&gt;/&lt;clave&gt; retained con {"status":"online|offline","lastSeen":..,"ts":..,"reason":..}.
+ * - Mongo: un documento por clave con el estado actual (upsert) y una entrada por transición en el historial.
+ * Cualquiera de los dos destinos puede ser null. Si Mongo falla el lote se descarta (el estado vuelve a escribirse
+ * en la próxima transición y el retained MQTT ya salió).
+ */
+public class PresenceEmitter implements Consumer<PresenceTracker.PresenceEvent>, AutoCloseable {
+    private static final int BATCH = 500;
+
+    private final CommandPublisher publisher;
+    private final String prefix;
+    private final MongoCollection<Document> current;
+    private final MongoCollection<Document> history;
+    private final LinkedBlockingQueue<PresenceTracker.PresenceEvent> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    public PresenceEmitter(CommandPublisher publisher, String prefix,
+                           MongoCollection<Document> current, MongoCollection<Document> history) {
+        if (publisher != null && (prefix.isBlank() || prefix.startsWith("sensors") || prefix.startsWith("switches"))) {
+            // El consumer está suscripto a sensors/+/+ y switches/+/+: se volvería a consumir a sí mismo
+            throw new IllegalArgumentException("PRESENCE_STATUS_PREFIX no puede ser vacío ni empezar con sensors/switches");
+        }
+        this.publisher = publisher;
+        this.prefix = prefix;
+        this.current = current;
+        this.history = history;
+        if (current != null) {
+            current.createIndex(Indexes.ascending("key"), new IndexOptions().name("uniq_key").unique(true));
+        }
+        if (history != null) {
+            history.createIndex(Indexes.ascending("key", "at"), new IndexOptions().name("idx_key_at"));
+        }
+        this.worker = Thread.ofPlatform().daemon(true).name("presence-emitter").start(this::runLoop);
+    }
+
+    @Override
+    public void accept(PresenceTracker.PresenceEvent e) {
+        Metrics.presenceEvent(e.online());
+        if (running) queue.offer(e);
+    }
+
+    private void runLoop() {
+        List<PresenceTracker.PresenceEvent> batch = new ArrayList<>(BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                PresenceTracker.PresenceEvent first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, BATCH - 1);
+                emit(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                System.err.printf("[consumer] presence: error al emitir %d eventos err=%s%n", batch.size(), e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void emit(List<PresenceTracker.PresenceEvent> batch) {
+        if (publisher != null) {
+            for (PresenceTracker.PresenceEvent e : batch) {
+                String json = new Document("status", e.online() ? "online" : "offline")
+                        .append("lastSeen", e.lastSeen())
+                        .append("ts", e.at())
+                        .append("reason", e.reason())
+                        .toJson();
+                publisher.publish(prefix + "/" + e.key(), json.getBytes(StandardCharsets.UTF_8), true);
+            }
+        }
+        if (current == null) return;
+
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        List<WriteModel<Document>> models = new ArrayList<>(batch.size());
+        List<Document> events = new ArrayList<>(batch.size());
+        for (PresenceTracker.PresenceEvent e : batch) {
+            String status = e.online() ? "online" : "offline";
+            // Un mismo lote puede traer offline y online de la misma clave: van en orden (ordered bulkWrite)
+            models.add(new UpdateOneModel<>(eq("key", e.key()), combine(
+                    setOnInsert("key", e.key()),
+                    set("status", status),
+                    set("lastSeen", e.lastSeen()),
+                    set("changedAt", e.at()),
+                    set("reason", e.reason())), upsert));
+            events.add(new Document("key", e.key()).append("status", status)
+                    .append("lastSeen", e.lastSeen()).append("at", e.at()).append("reason", e.reason()));
+        }
+        current.bulkWrite(models, new BulkWriteOptions().ordered(true));
+        if (history != null) history.insertMany(events);
+    }
+
+    /** Deja de aceptar eventos, espera a que salgan los encolados y cierra el publicador. */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            worker.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (publisher instanceof AutoCloseable c) {
+            try {
+                c.close();
+            } catch (Exception ignored) {}
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.tuapp.consumer.presence;
+
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.model.SensorReading;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Presencia de dispositivos con una rueda de tiempo (hashed timing wheel), sin un timer por dispositivo:
+ * - seen() es O(1): actualiza lastSeen del dispositivo (volatile) y nada más; solo los nuevos o los que vuelven
+ *   de offline pasan por una cola para que el hilo de la rueda los agende.
+ * - El hilo de la rueda avanza un slot por tick. Cada entrada del slot vencido se revisa: si llegó algo después,
+ *   se reagenda a su nuevo vencimiento (reprogramación perezosa); si no, pasa a offline y se emite el evento.
+ * - Vencimiento = lastSeen + max(minTimeout, factor * intervalo promedio); hasta tener un intervalo, initialTimeout.
+ * - Eventos online/offline (incluido el primer "online" de cada dispositivo) van a un Consumer (PresenceEmitter).
+ */
+public class PresenceTracker implements AutoCloseable {
+
+    public record PresenceEvent(String key, boolean online, long lastSeen, long at, String reason) {}
+
+    private static final class Device {
+        final String key;
+        volatile long lastSeen;
+        volatile double avgIntervalMs = Double.NaN;
+        final AtomicBoolean offline = new AtomicBoolean(false);
+        long deadlineTick; // solo lo toca el hilo de la rueda
+
+        Device(String key, long seenAt) {
+            this.key = key;
+            this.lastSeen = seenAt;
+        }
+    }
+
+    private final boolean byDevice;
+    private final long tickMs;
+    private final long initialTimeoutMs;
+    private final long minTimeoutMs;
+    private final double intervalFactor;
+    private final Consumer<PresenceEvent> events;
+
+    private final ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Device> toSchedule = new ConcurrentLinkedQueue<>();
+    private final List<Device>[] wheel;
+    private final AtomicInteger offlineCount = new AtomicInteger();
+    private long currentTick;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    @SuppressWarnings("unchecked")
+    public PresenceTracker(boolean byDevice, int slots, long tickMs, long initialTimeoutMs, long minTimeoutMs,
+                           double intervalFactor, Consumer<PresenceEvent> events) {
+        if (slots <= 0 || tickMs <= 0) throw new IllegalArgumentException("PRESENCE_WHEEL_SLOTS y PRESENCE_TICK_MS deben ser > 0");
+        this.byDevice = byDevice;
+        this.tickMs = tickMs;
+        this.initialTimeoutMs = initialTimeoutMs;
+        this.minTimeoutMs = minTimeoutMs;
+        this.intervalFactor = intervalFactor;
+        this.events = events;
+        this.wheel = (List<Device>[]) new List<?>[slots];
+        for (int i = 0; i < slots; i++) wheel[i] = new ArrayList<>();
+        this.currentTick = System.currentTimeMillis() / tickMs;
+
+        Metrics.gauge("consumer_presence_tracked", "Dispositivos/topics con presencia registrada", devices::size);
+        Metrics.gauge("consumer_presence_offline", "Dispositivos/topics actualmente offline", offlineCount::get);
+
+        this.worker = Thread.ofPlatform().daemon(true).name("presence-wheel").start(this::runLoop);
+    }
+
+    /** Registra actividad; la clave es deviceId (PRESENCE_KEY=device, si viene) o el topic. */
+    public void seen(SensorReading r) {
+        String key = byDevice && r.deviceId != null ? r.deviceId : r.topic;
+        long now = r.receivedAt;
+        Device d = devices.get(key);
+        if (d == null) {
+            Device created = new Device(key, now);
+            d = devices.putIfAbsent(key, created);
+            if (d == null) {
+                toSchedule.add(created);
+                events.accept(new PresenceEvent(key, true, now, now, "first-seen"));
+                return;
+            }
+        }
+        long prev = d.lastSeen;
+        if (now > prev) {
+            double gap = now - prev;
+            double avg = d.avgIntervalMs;
+            // Promedio móvil exponencial del intervalo entre mensajes (carrera benigna entre shards)
+            d.avgIntervalMs = Double.isNaN(avg) ? gap : avg * 0.8 + gap * 0.2;
+            d.lastSeen = now;
+        }
+        if (d.offline.compareAndSet(true, false)) {
+            offlineCount.decrementAndGet();
+            toSchedule.add(d);
+            events.accept(new PresenceEvent(key, true, now, now, "reporting"));
+        }
+    }
+
+    private long timeoutOf(Device d) {
+        double avg = d.avgIntervalMs;
+        if (Double.isNaN(avg)) return initialTimeoutMs;
+        return Math.max(minTimeoutMs, (long) (intervalFactor * avg));
+    }
+
+    private void schedule(Device d) {
+        long deadline = d.lastSeen + timeoutOf(d);
+        // Nunca en el pasado ni en el slot actual: como mínimo el próximo tick
+        d.deadlineTick = Math.max(currentTick + 1, Math.floorDiv(deadline + tickMs - 1, tickMs));
+        wheel[(int) Math.floorMod(d.deadlineTick, (long) wheel.length)].add(d);
+    }
+
+    private void runLoop() {
+        while (running) {
+            try {
+                Thread.sleep(tickMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Device d;
+                while ((d = toSchedule.poll()) != null) schedule(d);
+                long target = System.currentTimeMillis() / tickMs;
+                while (currentTick < target) {
+                    currentTick++;
+                    expire(currentTick);
+                }
+            } catch (RuntimeException e) {
+                System.err.printf("[consumer] presence: error en la rueda err=%s%n", e.getMessage());
+            }
+        }
+    }
+
+    /** Revisa el slot del tick: vencidos -> offline; los que reportaron o son de otra vuelta -> se reagendan. */
+    private void expire(long tick) {
+        int idx = (int) Math.floorMod(tick, (long) wheel.length);
+        List<Device> slot = wheel[idx];
+        if (slot.isEmpty()) return;
+        wheel[idx] = new ArrayList<>();
+        long now = tick * tickMs;
+        for (Device d : slot) {
+            if (d.deadlineTick > tick) {
+                wheel[idx].add(d); // vence en una vuelta posterior
+            } else if (d.lastSeen + timeoutOf(d) > now) {
+                schedule(d);       // reportó después de agendarse
+            } else if (d.offline.compareAndSet(false, true)) {
+                offlineCount.incrementAndGet();
+                // seen() pudo actualizar lastSeen después de la lectura de arriba y ver offline=false antes del CAS
+                if (d.lastSeen + timeoutOf(d) > now) {
+                    if (d.offline.compareAndSet(true, false)) {
+                        offlineCount.decrementAndGet();
+                        schedule(d);
+                    }
+                    // Si el CAS falla, seen() ya lo vio offline, lo pasó a online y lo volvió a encolar
+                    continue;
+                }
+                events.accept(new PresenceEvent(d.key, false, d.lastSeen, System.currentTimeMillis(), "timeout"));
+            }
+            // Offline: sale de la rueda; seen() lo vuelve a encolar al reaparecer
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+}
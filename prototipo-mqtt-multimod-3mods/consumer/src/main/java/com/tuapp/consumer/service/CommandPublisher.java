@@ -0,0 +1,11 @@
+package com.tuapp.consumer.service;
+
+/** Salida de comandos del motor de reglas (MQTT en producción). No debe bloquear al llamador. */
+public interface CommandPublisher {
+    void publish(String topic, byte[] payload);
+
+    /** Con retained el broker guarda el último mensaje del topic (estado de presencia). */
+    default void publish(String topic, byte[] payload, boolean retained) {
+        publish(topic, payload);
+    }
+}
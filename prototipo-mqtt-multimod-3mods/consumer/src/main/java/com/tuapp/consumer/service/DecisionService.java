@@ -1,12 +1,166 @@
 package com.tuapp.consumer.service;
 
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.metrics.RateLimitedLog;
+import com.tuapp.consumer.model.SensorReading;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Motor de reglas por habitación, en memoria y sin consultar Mongo:
+ * - Estado por habitación (temperatura interior, estado del switch, último comando) en un mapa concurrente
+ *   de AtomicReference; cada lectura reemplaza el RoomState con CAS, sin locks.
+ * - La temperatura exterior (TOPIC_OUTDOOR) es común a todas las habitaciones.
+ * - En cada lectura relevante evalúa el RuleSet y, si la acción difiere de lo que reporta el switch,
+ *   publica {"state":"ON|OFF",...} en switches/&lt;room&gt;/&lt;commandSuffix&gt;.
+ *   No repite el mismo comando antes de resendMs. Esos topics caen dentro de switches/+/+: isCommandTopic()
+ *   permite descartarlos al ingerir para no procesar los propios comandos como lecturas.
+ * - El topic se desarma una sola vez (caché topic -> habitación); por lectura solo se crea el RoomState nuevo,
+ *   y solo si el valor cambió.
+ * - Mide evaluación y reacción (receivedAt -> publicación) contra budgetMs.
+ */
 public class DecisionService {
     private final double setpoint;
-    public DecisionService(double setpoint) { this.setpoint = setpoint; }
+    private final RuleSet rules;
+    private final CommandPublisher publisher;
+    private final String outdoorTopic;
+    private final String commandSuffix;
+    private final long resendMs;
+    private final long budgetMs;
+
+    private final String commandTopicEnd;
+
+    /** Habitación y medida de un topic ya desarmado. */
+    private record TopicRoom(String room, AtomicReference<RoomState> state, boolean temperature) {}
+
+    private final Map<String, AtomicReference<RoomState>> rooms = new ConcurrentHashMap<>();
+    private final Map<String, TopicRoom> topics = new ConcurrentHashMap<>();
+    private volatile double outdoor = Double.NaN;
+    private final RateLimitedLog log = new RateLimitedLog(System.out, 5000);
+
+    public DecisionService(double setpoint, RuleSet rules, CommandPublisher publisher, String outdoorTopic,
+                           String commandSuffix, long resendMs, long budgetMs) {
+        this.setpoint = setpoint;
+        this.rules = rules;
+        this.publisher = publisher;
+        this.outdoorTopic = outdoorTopic;
+        this.commandSuffix = commandSuffix;
+        this.commandTopicEnd = "/" + commandSuffix;
+        this.resendMs = resendMs;
+        this.budgetMs = budgetMs;
+    }
+
     public double setpoint() { return setpoint; }
 
     /** Regla simple de ejemplo. Ajusta a tu gusto. */
     public boolean shouldHeatOn(double tempIndoor, double tempOutdoor) {
         return tempIndoor < setpoint && tempOutdoor <= setpoint + 5.0;
     }
+
+    /** true si el topic es un comando de este motor (switches/&lt;room&gt;/&lt;commandSuffix&gt;), no una lectura. */
+    public boolean isCommandTopic(String topic) {
+        return topic.startsWith("switches/") && topic.endsWith(commandTopicEnd);
+    }
+
+    /** Actualiza el estado con la lectura y evalúa las reglas de la(s) habitación(es) afectadas. */
+    public void onReading(SensorReading r) {
+        String topic = r.topic;
+        long t0 = System.nanoTime();
+
+        if (topic.equals(outdoorTopic)) {
+            Double t = temperatureOf(r);
+            if (t == null) return;
+            outdoor = t;
+            // El exterior afecta a todas las habitaciones
+            for (Map.Entry<String, AtomicReference<RoomState>> e : rooms.entrySet()) {
+                evaluate(e.getKey(), e.getValue(), r.receivedAt, t0);
+            }
+            return;
+        }
+
+        TopicRoom tr = topics.get(topic);
+        if (tr == null) tr = topics.computeIfAbsent(topic, this::parseTopic);
+        AtomicReference<RoomState> ref = tr.state();
+        if (ref == null) return; // topic sin interés para las reglas
+        RoomState cur;
+        if (tr.temperature()) {
+            Double t = temperatureOf(r);
+            if (t == null) return;
+            double v = t;
+            // CAS a mano en lugar de updateAndGet: sin lambda por lectura y sin RoomState nuevo si no cambió
+            do {
+                cur = ref.get();
+            } while (Double.compare(cur.indoor(), v) != 0 && !ref.compareAndSet(cur, cur.withIndoor(v)));
+        } else {
+            if (r.state == null) return;
+            boolean on = r.state;
+            do {
+                cur = ref.get();
+            } while (!Boolean.valueOf(on).equals(cur.switchOn()) && !ref.compareAndSet(cur, cur.withSwitch(on)));
+        }
+        evaluate(tr.room(), ref, r.receivedAt, t0);
+    }
+
+    /** Desarma el topic una sola vez: sensors/&lt;room&gt;/temperature y switches/&lt;room&gt;/state tienen habitación. */
+    private TopicRoom parseTopic(String topic) {
+        int a = topic.indexOf('/');
+        int b = topic.indexOf('/', a + 1);
+        if (a < 0 || b < 0) return new TopicRoom(null, null, false);
+        String kind = topic.substring(0, a);
+        String room = topic.substring(a + 1, b);
+        String measure = topic.substring(b + 1);
+        boolean temperature = "sensors".equals(kind) && "temperature".equals(measure);
+        boolean switchState = "switches".equals(kind) && "state".equals(measure);
+        if (!temperature && !switchState) return new TopicRoom(room, null, false);
+        return new TopicRoom(room, rooms.computeIfAbsent(room, k -> new AtomicReference<>(RoomState.EMPTY)),
+                temperature);
+    }
+
+    private void evaluate(String room, AtomicReference<RoomState> ref, long receivedAt, long t0) {
+        RoomState s = ref.get();
+        RuleSet.Rule rule = rules.evaluate(s.indoor(), outdoor);
+        Metrics.rulesEval(System.nanoTime() - t0);
+        if (rule == null) return;
+
+        String action = rule.action();
+        Boolean wantOn = "ON".equals(action) ? Boolean.TRUE : "OFF".equals(action) ? Boolean.FALSE : null;
+        if (wantOn != null && wantOn.equals(s.switchOn())) return; // el switch ya está así
+
+        long now = System.currentTimeMillis();
+        if (action.equals(s.lastCommand()) && now - s.lastCommandAt() < resendMs) return;
+        // Otro hilo pudo haber evaluado lo mismo: solo publica quien gana el CAS
+        if (!ref.compareAndSet(s, s.withCommand(action, now))) return;
+
+        if (publisher == null) {
+            // RULES_ENABLED=false: solo se evalúa; no se cuenta como comando porque no salió
+            log.log("[consumer] reglas: room=%s -> %s sin publicar (indoor=%.1f outdoor=%.1f) [%s]",
+                    room, action, s.indoor(), outdoor, rule.source());
+            return;
+        }
+        String json = "{\"state\":\"" + action + "\",\"ts\":" + now + ",\"source\":\"rules\"}";
+        publisher.publish("switches/" + room + "/" + commandSuffix, json.getBytes(StandardCharsets.UTF_8));
+        long reactionMs = Math.max(0, System.currentTimeMillis() - receivedAt);
+        Metrics.ruleCommand(action, reactionMs);
+        if (reactionMs > budgetMs) {
+            Metrics.ruleBudgetExceeded();
+            log.log("[consumer] reglas: room=%s %s en %d ms (budget %d ms)", room, action, reactionMs, budgetMs);
+        } else {
+            log.log("[consumer] reglas: room=%s -> %s (indoor=%.1f outdoor=%.1f) [%s]",
+                    room, action, s.indoor(), outdoor, rule.source());
+        }
+    }
+
+    private static Double temperatureOf(SensorReading r) {
+        if (r.temperature != null) return r.temperature;
+        return "temperature".equals(r.type) ? r.value : null;
+    }
+
+    /** Foto del estado de una habitación (null si nunca llegó nada). */
+    public RoomState state(String room) {
+        AtomicReference<RoomState> ref = rooms.get(room);
+        return ref == null ? null : ref.get();
+    }
 }
@@ -0,0 +1,14 @@
+package com.tuapp.consumer.service;
+
+/**
+ * Estado inmutable de una habitación para el motor de reglas; se reemplaza entero con CAS.
+ * NaN / null = todavía no llegó ese dato.
+ */
+public record RoomState(double indoor, Boolean switchOn, String lastCommand, long lastCommandAt) {
+
+    static final RoomState EMPTY = new RoomState(Double.NaN, null, null, 0L);
+
+    RoomState withIndoor(double t)      { return new RoomState(t, switchOn, lastCommand, lastCommandAt); }
+    RoomState withSwitch(boolean on)    { return new RoomState(indoor, on, lastCommand, lastCommandAt); }
+    RoomState withCommand(String action, long at) { return new RoomState(indoor, switchOn, action, at); }
+}
@@ -0,0 +1,130 @@
+package com.tuapp.consumer.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reglas compiladas desde un DSL compacto (variable RULES). Ejemplo (default):
+ * <pre>
+ *   ON: indoor &lt; setpoint &amp; outdoor &lt;= setpoint + 5; OFF: indoor &gt;= setpoint; OFF: outdoor &gt; setpoint + 5
+ * </pre>
+ * - Cada regla es ACCION: condicion &amp; condicion ...; gana la primera que se cumple (o ninguna).
+ * - Operandos: indoor, outdoor, setpoint o un número (admite exponente: 1e-3), con un "+ n" / "- n" opcional.
+ * - Operadores: &lt; &lt;= &gt; &gt;= == !=. Si falta un dato (NaN) la condición no se cumple.
+ * Se compila una vez al arrancar; evaluar no asigna memoria.
+ */
+public final class RuleSet {
+
+    public static final String DEFAULT =
+            "ON: indoor < setpoint & outdoor <= setpoint + 5; OFF: indoor >= setpoint; OFF: outdoor > setpoint + 5";
+
+    public record Rule(String action, String source, Condition[] conditions) {
+        boolean matches(double indoor, double outdoor) {
+            for (Condition c : conditions) {
+                if (!c.test(indoor, outdoor)) return false;
+            }
+            return true;
+        }
+    }
+
+    /** left (op) right; cada lado es variable + offset o constante. */
+    record Condition(Operand left, String op, Operand right) {
+        boolean test(double indoor, double outdoor) {
+            double l = left.value(indoor, outdoor);
+            double r = right.value(indoor, outdoor);
+            if (Double.isNaN(l) || Double.isNaN(r)) return false;
+            return switch (op) {
+                case "<"  -> l < r;
+                case "<=" -> l <= r;
+                case ">"  -> l > r;
+                case ">=" -> l >= r;
+                case "==" -> l == r;
+                default   -> l != r; // "!="
+            };
+        }
+    }
+
+    /** var: 0 = constante, 1 = indoor, 2 = outdoor (setpoint se resuelve al compilar). */
+    record Operand(int var, double offset) {
+        double value(double indoor, double outdoor) {
+            return switch (var) {
+                case 1 -> indoor + offset;
+                case 2 -> outdoor + offset;
+                default -> offset;
+            };
+        }
+    }
+
+    // base (variable o número con signo) y offset opcional; el signo de un exponente no separa el offset
+    private static final String NUMBER = "(?:\\d+(?:\\.\\d*)?|\\.\\d+)(?:[eE][+-]?\\d+)?";
+    private static final Pattern OPERAND =
+            Pattern.compile("([A-Za-z]+|[+-]?" + NUMBER + ")(?:([+-]" + NUMBER + "))?");
+
+    private final Rule[] rules;
+
+    private RuleSet(Rule[] rules) {
+        this.rules = rules;
+    }
+
+    /** Primera regla que se cumple, o null. */
+    public Rule evaluate(double indoor, double outdoor) {
+        for (Rule r : rules) {
+            if (r.matches(indoor, outdoor)) return r;
+        }
+        return null;
+    }
+
+    public int size() { return rules.length; }
+
+    public static RuleSet parse(String dsl, double setpoint) {
+        List<Rule> out = new ArrayList<>();
+        for (String raw : dsl.split(";")) {
+            String text = raw.trim();
+            if (text.isEmpty()) continue;
+            int colon = text.indexOf(':');
+            if (colon <= 0) throw new IllegalArgumentException("regla sin 'ACCION:' -> " + text);
+            String action = text.substring(0, colon).trim().toUpperCase(Locale.ROOT);
+            List<Condition> conds = new ArrayList<>();
+            for (String c : text.substring(colon + 1).split("&")) {
+                conds.add(condition(c.trim(), setpoint, text));
+            }
+            out.add(new Rule(action, text, conds.toArray(Condition[]::new)));
+        }
+        if (out.isEmpty()) throw new IllegalArgumentException("RULES vacío");
+        return new RuleSet(out.toArray(Rule[]::new));
+    }
+
+    private static Condition condition(String text, double setpoint, String rule) {
+        // Los de dos caracteres primero para no cortar "<=" como "<"
+        for (String op : new String[]{"<=", ">=", "==", "!=", "<", ">"}) {
+            int i = text.indexOf(op);
+            if (i > 0) {
+                return new Condition(operand(text.substring(0, i), setpoint, rule), op,
+                        operand(text.substring(i + op.length()), setpoint, rule));
+            }
+        }
+        throw new IllegalArgumentException("condición sin operador -> " + rule);
+    }
+
+    private static Operand operand(String text, double setpoint, String rule) {
+        String s = text.replace(" ", "");
+        Matcher m = OPERAND.matcher(s);
+        if (!m.matches()) throw new IllegalArgumentException("operando inválido '" + s + "' -> " + rule);
+        String base = m.group(1);
+        double offset = m.group(2) == null ? 0 : Double.parseDouble(m.group(2));
+        return switch (base.toLowerCase(Locale.ROOT)) {
+            case "indoor" -> new Operand(1, offset);
+            case "outdoor" -> new Operand(2, offset);
+            case "setpoint" -> new Operand(0, setpoint + offset);
+            default -> {
+                if (Character.isLetter(base.charAt(0))) {
+                    throw new IllegalArgumentException("operando desconocido '" + base + "' -> " + rule);
+                }
+                yield new Operand(0, Double.parseDouble(base) + offset);
+            }
+        };
+    }
+}
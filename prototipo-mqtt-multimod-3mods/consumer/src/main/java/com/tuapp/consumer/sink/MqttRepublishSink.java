@@ -0,0 +1,51 @@
+package com.tuapp.consumer.sink;
+
+import com.tuapp.consumer.model.SensorReading;
+import com.tuapp.consumer.service.CommandPublisher;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Republica cada lectura ya normalizada (números tipados, state booleano, ts resuelto) en
+ * &lt;prefix&gt;/&lt;topic original&gt;, p. ej. normalized/sensors/room1/temperature, para servicios aguas abajo.
+ */
+public class MqttRepublishSink implements ReadingSink {
+    private static final JsonWriterSettings JSON = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+    private final CommandPublisher publisher;
+    private final String prefix;
+
+    public MqttRepublishSink(CommandPublisher publisher, String prefix) {
+        if (prefix.isBlank() || prefix.startsWith("sensors") || prefix.startsWith("switches")) {
+            // El consumer está suscripto a sensors/+/+ y switches/+/+: se volvería a consumir a sí mismo
+            throw new IllegalArgumentException("SINK_MQTT_PREFIX no puede ser vacío ni empezar con sensors/switches");
+        }
+        this.publisher = publisher;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public String name() { return "mqtt"; }
+
+    @Override
+    public void write(List<SensorReading> batch) {
+        for (SensorReading r : batch) {
+            String json = new Document("ts", r.ts)
+                    .append("receivedAt", r.receivedAt)
+                    .append("payload", r.toPayload())
+                    .toJson(JSON);
+            publisher.publish(prefix + "/" + r.topic, json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (publisher instanceof Closeable c) c.close();
+    }
+}
@@ -0,0 +1,93 @@
+package com.tuapp.consumer.sink;
+
+import com.tuapp.consumer.metrics.Metrics;
+import com.tuapp.consumer.model.SensorReading;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cola acotada + hilo propio delante de un ReadingSink:
+ * - offer() nunca bloquea: con la cola llena la lectura se descarta para ese sink (consumer_sink_dropped_total).
+ * - El hilo junta hasta batchSize lecturas o espera flushMs desde la primera y llama a write().
+ * - Un error de write() se loguea y se cuenta; el lote se descarta y el sink sigue con el próximo.
+ */
+public class QueuedSink implements AutoCloseable {
+    private final ReadingSink sink;
+    private final ArrayBlockingQueue<SensorReading> queue;
+    private final int batchSize;
+    private final long flushMs;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    public QueuedSink(ReadingSink sink, int capacity, int batchSize, long flushMs) {
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushMs = flushMs;
+        Metrics.gauge("consumer_sink_queue_depth", "Lecturas en la cola de cada sink", queue::size, "sink", sink.name());
+        this.worker = Thread.ofPlatform().daemon(true).name("sink-" + sink.name()).start(this::runLoop);
+    }
+
+    public String name() { return sink.name(); }
+
+    public void offer(SensorReading reading) {
+        if (!queue.offer(reading)) Metrics.sinkDropped(sink.name());
+    }
+
+    private void runLoop() {
+        List<SensorReading> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                SensorReading first = queue.poll(flushMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long left = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || left <= 0) break;
+                    SensorReading next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                queue.drainTo(batch);
+                running = false;
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<SensorReading> batch) {
+        if (batch.isEmpty()) return;
+        long t0 = System.nanoTime();
+        try {
+            sink.write(batch);
+            Metrics.sinkWritten(sink.name(), System.nanoTime() - t0, batch.size());
+        } catch (Exception e) {
+            Metrics.sinkError(sink.name(), batch.size());
+            System.err.printf("[consumer] sink %s: error al escribir lote=%d err=%s%n", sink.name(), batch.size(), e.getMessage());
+        }
+    }
+
+    /** Deja de aceptar, vacía la cola (con límite de tiempo) y cierra el sink. */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            worker.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sink.close();
+        } catch (IOException e) {
+            System.err.printf("[consumer] sink %s: error al cerrar err=%s%n", sink.name(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.tuapp.consumer.sink;
+
+import com.tuapp.consumer.model.SensorReading;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destino secundario de lecturas (archivo, republicación MQTT, ...). Cada uno corre detrás de un QueuedSink:
+ * recibe lotes desde su propio hilo y un error o una demora no afecta a Mongo ni a los otros sinks.
+ * Recibe lo que se guarda: va detrás de la banda muerta, igual que 'raws'.
+ */
+public interface ReadingSink extends AutoCloseable {
+    String name();
+
+    /** Escribe el lote en orden de llegada; una excepción descarta el lote (se cuenta como error). */
+    void write(List<SensorReading> batch) throws Exception;
+
+    @Override
+    default void close() throws IOException { }
+}
@@ -0,0 +1,77 @@
+package com.tuapp.consumer.sink;
+
+import com.tuapp.consumer.model.SensorReading;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Sink a archivos NDJSON rotativos: una línea {topic, ts, receivedAt, payload} por lectura.
+ * - Escribe en readings-<epochMs>.ndjson dentro de dir; al superar maxBytes abre uno nuevo.
+ * - Conserva los últimos keepFiles archivos y borra los más viejos.
+ */
+public class RollingFileSink implements ReadingSink {
+    private static final JsonWriterSettings JSON = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+    private final Path dir;
+    private final long maxBytes;
+    private final int keepFiles;
+    private BufferedWriter out;
+    private long written;
+
+    public RollingFileSink(Path dir, long maxBytes, int keepFiles) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.keepFiles = keepFiles;
+        Files.createDirectories(dir);
+    }
+
+    @Override
+    public String name() { return "file"; }
+
+    @Override
+    public void write(List<SensorReading> batch) throws IOException {
+        if (out == null || written >= maxBytes) roll();
+        for (SensorReading r : batch) {
+            String line = new Document("topic", r.topic)
+                    .append("ts", r.ts)
+                    .append("receivedAt", r.receivedAt)
+                    .append("payload", r.toPayload())
+                    .toJson(JSON);
+            out.write(line);
+            out.write('\n');
+            written += line.length() + 1;
+        }
+        out.flush();
+    }
+
+    private void roll() throws IOException {
+        if (out != null) out.close();
+        Path file = dir.resolve("readings-" + System.currentTimeMillis() + ".ndjson");
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        written = Files.size(file);
+        prune();
+    }
+
+    private void prune() throws IOException {
+        List<Path> files;
+        try (Stream<Path> s = Files.list(dir)) {
+            files = s.filter(p -> p.getFileName().toString().matches("readings-\\d+\\.ndjson")).sorted().toList();
+        }
+        for (int i = 0; i < files.size() - keepFiles; i++) Files.deleteIfExists(files.get(i));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) out.close();
+    }
+}
@@ -0,0 +1,41 @@
+package com.tuapp.consumer.sink;
+
+import com.tuapp.consumer.db.TopicAppender;
+import com.tuapp.consumer.model.SensorReading;
+
+import java.util.List;
+
+/**
+ * Reparte cada lectura entre el destino principal (Mongo: single, batch o spool) y los sinks secundarios.
+ * - A los secundarios solo se les encola (QueuedSink, nunca bloquea); cada uno escribe en su hilo.
+ * - El ack/onDurable sigue al destino principal: los secundarios son de mejor esfuerzo.
+ * - Envuelve al destino principal, así que está detrás de la banda muerta de MessageProcessor: los secundarios
+ *   reciben las mismas lecturas que se guardan en 'raws', no las filtradas (rollups y energía sí las ven todas).
+ */
+public class SinkFanout implements TopicAppender, AutoCloseable {
+    private final TopicAppender primary;
+    private final List<QueuedSink> sinks;
+
+    public SinkFanout(TopicAppender primary, List<QueuedSink> sinks) {
+        this.primary = primary;
+        this.sinks = List.copyOf(sinks);
+    }
+
+    @Override
+    public void appendByTopic(SensorReading reading) {
+        for (QueuedSink s : sinks) s.offer(reading);
+        primary.appendByTopic(reading);
+    }
+
+    @Override
+    public void appendByTopic(SensorReading reading, Runnable onDurable) {
+        for (QueuedSink s : sinks) s.offer(reading);
+        primary.appendByTopic(reading, onDurable);
+    }
+
+    /** Cierra solo los secundarios; el principal lo cierra quien lo creó. */
+    @Override
+    public void close() {
+        for (QueuedSink s : sinks) s.close();
+    }
+}
@@ -0,0 +1,417 @@
+package com.tuapp.consumer.spool;
+
+import com.tuapp.consumer.db.MongoService;
+import com.tuapp.consumer.db.TopicAppender;
+import com.tuapp.consumer.model.SensorReading;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Journal local append-only en segmentos mapeados en memoria (SPOOL_DIR/NNN.seg).
+ * - appendByTopic escribe la entrada de 'raws' (BSON) y vuelve: no depende de Mongo.
+ * - El SpoolReplayer lee en orden con un Cursor y guarda el checkpoint (segmento, offset) después de persistir.
+ * - Los segmentos ya consumidos se reciclan (renombrados para el próximo) o se borran.
+ *
+ * Registro: [int len][int crc32c][long seq][short topicLen][topic][bson]. len=-1 marca fin de segmento.
+ * El seq del segmento va en cada registro: en un archivo reciclado, los restos viejos no validan.
+ */
+public class SpoolJournal implements TopicAppender, AutoCloseable {
+
+    private static final int HEADER = 16;
+    private static final int END_OF_SEGMENT = -1;
+    private static final DocumentCodec CODEC = new DocumentCodec();
+
+    /** Posición en el journal: segmento + offset del próximo registro. */
+    public record Position(long seq, int offset) {}
+
+    /** Registro leído: topic + entrada de 'raws' lista para Mongo, y la posición que sigue. */
+    public record Entry(String topic, Document rawEntry, Position next) {}
+
+    private static final class Segment {
+        final long seq;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buf;
+
+        Segment(long seq, Path path, FileChannel channel, MappedByteBuffer buf) {
+            this.seq = seq;
+            this.path = path;
+            this.channel = channel;
+            this.buf = buf;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final int spareSegments;
+    private final Path checkpointFile;
+
+    private final Map<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final ArrayDeque<Path> spares = new ArrayDeque<>();
+    private final Object lock = new Object();
+
+    // Escritura (bajo lock)
+    private Segment current;
+    private int writeOffset;
+    private long oldestSeq;
+    private boolean closed;
+    private boolean warnedFull;
+
+    // Lo que el lector puede consumir (publicado después de cada append)
+    private volatile Position published;
+    private volatile Position checkpoint;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong();
+
+    public SpoolJournal(Path dir, int segmentBytes, int maxSegments, int spareSegments) {
+        if (segmentBytes < 4096 || maxSegments < 2) {
+            throw new IllegalArgumentException("SPOOL_SEGMENT_BYTES >= 4096 y SPOOL_MAX_SEGMENTS >= 2");
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        this.spareSegments = spareSegments;
+        this.checkpointFile = dir.resolve("checkpoint");
+        try {
+            Files.createDirectories(dir);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("no se pudo abrir el spool en " + dir, e);
+        }
+    }
+
+    // ------------------------------------------------------------------ escritura
+
+    @Override
+    public void appendByTopic(SensorReading reading) {
+        byte[] topic = reading.topic.getBytes(StandardCharsets.UTF_8);
+        RawBsonDocument bson = new RawBsonDocument(MongoService.rawEntry(reading), CODEC);
+        ByteBuffer body = bson.getByteBuffer().asNIO();
+        int len = 2 + topic.length + body.remaining();
+        if (HEADER + len + 4 > segmentBytes) {
+            throw new IllegalArgumentException("registro de " + len + " bytes no entra en un segmento del spool");
+        }
+
+        synchronized (lock) {
+            if (closed) throw new IllegalStateException("spool cerrado");
+            if (writeOffset + HEADER + len > segmentBytes) roll();
+
+            ByteBuffer b = current.buf;
+            int start = writeOffset;
+            b.position(start + HEADER);
+            b.putShort((short) topic.length);
+            b.put(topic);
+            b.put(body);
+            b.putLong(start + 8, current.seq);
+            b.putInt(start + 4, crc(b, start + 8, 8 + len));
+            b.putInt(start, len); // el len va último: un registro a medio escribir no valida
+            writeOffset = start + HEADER + len;
+            published = new Position(current.seq, writeOffset);
+            lock.notifyAll();
+        }
+        appended.incrementAndGet();
+        appendedBytes.addAndGet(HEADER + len);
+    }
+
+    /** Cierra el segmento actual y pasa al siguiente (reciclado si hay uno libre). Llamar con lock. */
+    private void roll() {
+        // Si el backlog llegó al máximo, el productor espera a que el replayer libere un segmento
+        while (current.seq - oldestSeq + 1 >= maxSegments && !closed) {
+            if (!warnedFull) {
+                System.err.printf("[consumer] spool lleno (%d segmentos): esperando al replayer%n", maxSegments);
+                warnedFull = true;
+            }
+            try {
+                lock.wait(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrumpido esperando lugar en el spool");
+            }
+        }
+        warnedFull = false;
+        if (writeOffset + 4 <= segmentBytes) current.buf.putInt(writeOffset, END_OF_SEGMENT);
+        long next = current.seq + 1;
+        try {
+            current = openSegment(next, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("no se pudo crear el segmento " + next, e);
+        }
+        writeOffset = 0;
+        published = new Position(next, 0);
+    }
+
+    /** Fuerza a disco el segmento actual (sin esto, lo escrito sobrevive a un crash del proceso pero no del SO). */
+    public void force() {
+        Segment s;
+        synchronized (lock) {
+            s = current;
+        }
+        if (s != null) s.buf.force();
+    }
+
+    // ------------------------------------------------------------------ lectura
+
+    public Cursor cursor() {
+        return new Cursor(checkpoint);
+    }
+
+    /** Lector secuencial (uno solo, el hilo del replayer). */
+    public final class Cursor {
+        private long seq;
+        private int offset;
+
+        private Cursor(Position from) {
+            this.seq = from.seq();
+            this.offset = from.offset();
+        }
+
+        public Position position() {
+            return new Position(seq, offset);
+        }
+
+        /** Próximo registro o null si el lector alcanzó al escritor. */
+        public Entry next() {
+            while (true) {
+                Position w = published;
+                if (seq > w.seq() || (seq == w.seq() && offset >= w.offset())) return null;
+
+                Segment s = segments.get(seq);
+                if (s == null) {
+                    try {
+                        s = openSegment(seq, false);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("no se pudo abrir el segmento " + seq, e);
+                    }
+                }
+                ByteBuffer b = s.buf;
+                int len = offset + HEADER <= segmentBytes ? b.getInt(offset) : END_OF_SEGMENT;
+                if (len <= 0) {
+                    // Fin de segmento: solo se pasa al siguiente si el escritor ya está más adelante
+                    if (seq < w.seq()) {
+                        seq++;
+                        offset = 0;
+                        continue;
+                    }
+                    return null;
+                }
+                int p = offset + HEADER;
+                int topicLen = b.getShort(p);
+                byte[] topic = new byte[topicLen];
+                b.get(p + 2, topic);
+                int bsonStart = p + 2 + topicLen;
+                byte[] bson = new byte[len - 2 - topicLen];
+                b.get(bsonStart, bson);
+                offset = p + len;
+                Document raw = new RawBsonDocument(bson).decode(CODEC);
+                return new Entry(new String(topic, StandardCharsets.UTF_8), raw, new Position(seq, offset));
+            }
+        }
+    }
+
+    /** Espera hasta que haya algo después de 'p' o venza el timeout. */
+    public void awaitData(Position p, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (lock) {
+            while (!closed) {
+                Position w = published;
+                if (w.seq() > p.seq() || w.offset() > p.offset()) return;
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) return;
+                lock.wait(left);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------ checkpoint y reciclado
+
+    /** Guarda el checkpoint y libera los segmentos anteriores a él. */
+    public void checkpoint(Position p) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(20);
+        b.putLong(p.seq()).putInt(p.offset());
+        CRC32C c = new CRC32C();
+        c.update(b.array(), 0, 12);
+        b.putLong(c.getValue());
+        b.flip();
+        Path tmp = dir.resolve("checkpoint.tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.write(b);
+            ch.force(false);
+        }
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpoint = p;
+
+        List<Long> done = new ArrayList<>();
+        synchronized (lock) {
+            for (long s = oldestSeq; s < p.seq(); s++) done.add(s);
+            if (!done.isEmpty()) {
+                oldestSeq = p.seq();
+                lock.notifyAll();
+            }
+        }
+        for (long s : done) recycle(s);
+    }
+
+    private void recycle(long seq) throws IOException {
+        Segment s = segments.remove(seq);
+        Path path = s != null ? s.path : segmentPath(seq);
+        if (s != null) s.channel.close();
+        if (!Files.exists(path)) return;
+        synchronized (spares) {
+            if (spares.size() < spareSegments) {
+                Path spare = dir.resolve("spare-" + seq + ".seg");
+                Files.move(path, spare, StandardCopyOption.ATOMIC_MOVE);
+                spares.add(spare);
+                return;
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    // ------------------------------------------------------------------ arranque
+
+    private void recover() throws IOException {
+        checkpoint = readCheckpoint();
+
+        List<Long> seqs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(f -> {
+                String n = f.getFileName().toString();
+                if (n.startsWith("spare-")) spares.add(f);
+                else if (n.endsWith(".seg")) seqs.add(Long.parseLong(n.substring(0, n.length() - 4)));
+            });
+        }
+        seqs.sort(null);
+
+        if (checkpoint == null) {
+            checkpoint = new Position(seqs.isEmpty() ? 1 : seqs.get(0), 0);
+        }
+        // Segmentos anteriores al checkpoint ya se persistieron
+        for (long s : seqs) if (s < checkpoint.seq()) recycle(s);
+        seqs.removeIf(s -> s < checkpoint.seq());
+
+        long last = seqs.isEmpty() ? checkpoint.seq() : seqs.get(seqs.size() - 1);
+        oldestSeq = checkpoint.seq();
+        current = openSegment(last, true);
+        writeOffset = scanEnd(current, last == checkpoint.seq() ? checkpoint.offset() : 0);
+        published = new Position(last, writeOffset);
+
+        if (seqs.size() > 1 || writeOffset > checkpoint.offset()) {
+            System.out.printf("[consumer] spool: pendiente desde %d:%d hasta %d:%d%n",
+                    checkpoint.seq(), checkpoint.offset(), last, writeOffset);
+        }
+    }
+
+    /** Primer offset sin un registro válido (fin de lo escrito antes de un corte). */
+    private int scanEnd(Segment s, int from) {
+        ByteBuffer b = s.buf;
+        int off = from;
+        while (off + HEADER <= segmentBytes) {
+            int len = b.getInt(off);
+            if (len <= 0 || off + HEADER + len > segmentBytes) break;
+            if (b.getLong(off + 8) != s.seq || b.getInt(off + 4) != crc(b, off + 8, 8 + len)) break;
+            off += HEADER + len;
+        }
+        return off;
+    }
+
+    private Position readCheckpoint() throws IOException {
+        if (!Files.exists(checkpointFile)) return null;
+        byte[] raw = Files.readAllBytes(checkpointFile);
+        if (raw.length != 20) return null;
+        ByteBuffer b = ByteBuffer.wrap(raw);
+        long seq = b.getLong();
+        int off = b.getInt();
+        CRC32C c = new CRC32C();
+        c.update(raw, 0, 12);
+        return c.getValue() == b.getLong() ? new Position(seq, off) : null;
+    }
+
+    // ------------------------------------------------------------------ utilidades
+
+    private Segment openSegment(long seq, boolean forWrite) throws IOException {
+        Path path = segmentPath(seq);
+        if (forWrite && !Files.exists(path)) {
+            Path spare;
+            synchronized (spares) {
+                spare = spares.poll();
+            }
+            if (spare != null) Files.move(spare, path, StandardCopyOption.ATOMIC_MOVE);
+        }
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        Segment s = new Segment(seq, path, ch, buf);
+        Segment prev = segments.putIfAbsent(seq, s);
+        if (prev != null) {
+            ch.close();
+            return prev;
+        }
+        return s;
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("%020d.seg", seq));
+    }
+
+    private static int crc(ByteBuffer b, int from, int len) {
+        CRC32C c = new CRC32C();
+        c.update(b.slice(from, len));
+        return (int) c.getValue();
+    }
+
+    // Estadísticas
+    public long appended()          { return appended.get(); }
+    public long appendedBytes()     { return appendedBytes.get(); }
+    public Position writePosition() { return published; }
+    public Position checkpointPosition() { return checkpoint; }
+    /** true si todo lo escrito ya está persistido (el checkpoint alcanzó al escritor). */
+    public boolean caughtUp() {
+        Position w = published, c = checkpoint;
+        if (w.equals(c)) return true;
+        // Justo después de un roll: del segmento anterior solo queda la marca de fin
+        return w.offset() == 0 && c.seq() == w.seq() - 1;
+    }
+
+    public long backlogSegments() {
+        return published.seq() - checkpoint.seq() + 1;
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            lock.notifyAll();
+            if (current != null) current.buf.force();
+        }
+        for (Segment s : segments.values()) {
+            try {
+                s.channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.tuapp.consumer.spool;
+
+import com.tuapp.consumer.db.MongoService;
+import com.tuapp.consumer.metrics.Metrics;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Vacía el SpoolJournal hacia MongoService en orden:
+ * - Lee hasta batchSize registros (o lo que haya después de flushMs), agrupa por topic y hace appendBatch.
+ * - Si Mongo falla, reintenta el mismo lote con backoff; el checkpoint solo avanza después de persistir.
+ * - Cada forceMs fuerza a disco el segmento que se está escribiendo.
+ * Entrega al menos una vez: un lote reintentado tras un bulkWrite parcial puede duplicar entradas.
+ */
+public class SpoolReplayer implements AutoCloseable {
+
+    private static final long MAX_BACKOFF_MS = 5000;
+
+    private final SpoolJournal journal;
+    private final MongoService mongo;
+    private final int batchSize;
+    private final long flushMs;
+    private final long forceMs;
+    private final long reportMs;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private volatile long lastBatchMicros;
+
+    public SpoolReplayer(SpoolJournal journal, MongoService mongo, int batchSize, long flushMs,
+                         long forceMs, long reportMs) {
+        this.journal = journal;
+        this.mongo = mongo;
+        this.batchSize = batchSize;
+        this.flushMs = flushMs;
+        this.forceMs = forceMs;
+        this.reportMs = reportMs;
+        this.worker = new Thread(this::runLoop, "spool-replayer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+
+        Metrics.gauge("consumer_spool_lag_entries", "Registros del spool todavía no persistidos en Mongo",
+                () -> Math.max(0, journal.appended() - replayed.get()));
+        Metrics.gauge("consumer_spool_backlog_segments", "Segmentos del spool pendientes de checkpoint",
+                journal::backlogSegments);
+        Metrics.gauge("consumer_spool_retries", "Reintentos de lotes contra Mongo", retries::get);
+    }
+
+    private void runLoop() {
+        SpoolJournal.Cursor cursor = journal.cursor();
+        long lastForce = System.currentTimeMillis();
+        long lastReport = lastForce;
+
+        while (running) {
+            try {
+                List<SpoolJournal.Entry> batch = read(cursor);
+                if (batch.isEmpty()) {
+                    journal.awaitData(cursor.position(), flushMs);
+                } else if (persist(batch)) {
+                    journal.checkpoint(batch.get(batch.size() - 1).next());
+                } else {
+                    // Apagado en medio de los reintentos: lo no persistido queda en el spool
+                    return;
+                }
+
+                long now = System.currentTimeMillis();
+                if (forceMs > 0 && now - lastForce >= forceMs) {
+                    journal.force();
+                    lastForce = now;
+                }
+                if (reportMs > 0 && now - lastReport >= reportMs) {
+                    lastReport = now;
+                    System.out.printf("[consumer] spool: appended=%d replayed=%d batches=%d retries=%d lastBatchMs=%.2f write=%s checkpoint=%s backlogSegments=%d%n",
+                            journal.appended(), replayed.get(), batches.get(), retries.get(), lastBatchMicros / 1000.0,
+                            journal.writePosition(), journal.checkpointPosition(), journal.backlogSegments());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                System.err.printf("[consumer] spool: error en replayer err=%s%n", e.getMessage());
+                sleep(1000);
+            }
+        }
+    }
+
+    /** Junta hasta batchSize registros; si hay pocos, espera como máximo flushMs a que lleguen más. */
+    private List<SpoolJournal.Entry> read(SpoolJournal.Cursor cursor) throws InterruptedException {
+        List<SpoolJournal.Entry> batch = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMs);
+        while (batch.size() < batchSize) {
+            SpoolJournal.Entry e = cursor.next();
+            if (e != null) {
+                batch.add(e);
+                continue;
+            }
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (batch.isEmpty() || left <= 0) break;
+            journal.awaitData(cursor.position(), left);
+        }
+        return batch;
+    }
+
+    /** true si el lote quedó en Mongo; false si se pidió el cierre antes de lograrlo. */
+    private boolean persist(List<SpoolJournal.Entry> batch) {
+        // LinkedHashMap: conserva el orden de llegada de los topics y de las entradas de cada uno
+        Map<String, List<Document>> byTopic = new LinkedHashMap<>();
+        for (SpoolJournal.Entry e : batch) {
+            byTopic.computeIfAbsent(e.topic(), t -> new ArrayList<>()).add(e.rawEntry());
+        }
+
+        // Preparado una vez: cada reintento reenvía solo lo que no se aplicó
+        MongoService.BatchWrite write = mongo.prepareBatch(byTopic);
+        long backoff = 100;
+        while (true) {
+            long t0 = System.nanoTime();
+            try {
+                write.apply();
+                lastBatchMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0);
+                batches.incrementAndGet();
+                replayed.addAndGet(batch.size());
+                return true;
+            } catch (Exception e) {
+                retries.incrementAndGet();
+                System.err.printf("[consumer] spool: Mongo no disponible, reintento en %d ms (lote=%d) err=%s%n",
+                        backoff, batch.size(), e.getMessage());
+            }
+            if (!running) return false;
+            sleep(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long replayed() { return replayed.get(); }
+    public long retries()  { return retries.get(); }
+
+    /**
+     * Espera hasta drainTimeoutMs a que el replayer alcance al escritor y lo detiene.
+     * Lo que no se llegó a persistir se retoma desde el checkpoint en el próximo arranque.
+     */
+    public void close(long drainTimeoutMs) {
+        long deadline = System.currentTimeMillis() + drainTimeoutMs;
+        while (System.currentTimeMillis() < deadline && !journal.caughtUp()) {
+            sleep(50);
+        }
+        // Sin interrupt: cortar a mitad de la escritura del checkpoint solo provocaría más duplicados
+        running = false;
+        try {
+            worker.join(flushMs + MAX_BACKOFF_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        close(10_000);
+    }
+}
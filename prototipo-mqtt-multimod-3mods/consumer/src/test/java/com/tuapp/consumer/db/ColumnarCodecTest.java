@@ -0,0 +1,103 @@
+package com.tuapp.consumer.db;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ColumnarCodecTest {
+
+    /**
+     * Bloque de referencia compartido con la API (api/.../mongo/ColumnarCodecTest decodifica el mismo archivo):
+     * si cambia el layout de col1, el test falla en los dos módulos.
+     */
+    static final Path VECTOR = Path.of("..", "testdata", "col1-block.hex");
+
+    /** Entradas del bloque de referencia: todos los tipos de columna, un hueco de presencia y deltas variados. */
+    static List<Document> vectorEntries() {
+        long[] ts = {1_759_096_500_000L, 1_759_096_505_000L, 1_759_096_510_000L, 1_759_096_515_020L, 1_759_096_619_990L};
+        double[] temperature = {21.5, 21.5, 21.75, 22.125, -3.0};
+        Integer[] humidity = {60, null, 61, 61, 59};
+        boolean[] state = {true, false, true, true, false};
+        String[] unit = {"C", "C", "F", "C", "C"};
+        long[] seq = {1, 2, 3, 1000, 1001};
+        List<Document> out = new ArrayList<>();
+        for (int i = 0; i < ts.length; i++) {
+            Document payload = new Document("temperature", temperature[i]);
+            if (humidity[i] != null) payload.append("humidity", humidity[i]);
+            payload.append("state", state[i]).append("unit", unit[i]).append("ts", ts[i]).append("seq", seq[i]);
+            out.add(new Document("ts", ts[i]).append("receivedAt", ts[i] + 30 + i).append("payload", payload));
+        }
+        return out;
+    }
+
+    @Test
+    void roundTripKeepsValuesAndTypes() {
+        List<Document> entries = vectorEntries();
+        assertEquals(entries, ColumnarCodec.decode(ColumnarCodec.encode(entries)));
+    }
+
+    @Test
+    void roundTripSingleEntryAndEmptyPayload() {
+        List<Document> entries = List.of(new Document("ts", 5L).append("receivedAt", 7L).append("payload", new Document()));
+        assertEquals(entries, ColumnarCodec.decode(ColumnarCodec.encode(entries)));
+    }
+
+    @Test
+    void roundTripLargeDeltasAndDoubles() {
+        List<Document> entries = new ArrayList<>();
+        long t = 0;
+        for (int i = 0; i < 500; i++) {
+            t += (i % 7 == 0) ? 3_600_000L : 1000 + i; // fuerza todos los prefijos de delta-of-delta
+            double v = Math.sin(i / 10.0) * 1e3 + (i % 11 == 0 ? Double.MIN_VALUE : 0);
+            entries.add(new Document("ts", t).append("receivedAt", t + i)
+                    .append("payload", new Document("value", v).append("type", i % 3 == 0 ? "a" : "b")));
+        }
+        assertEquals(entries, ColumnarCodec.decode(ColumnarCodec.encode(entries)));
+    }
+
+    @Test
+    void notEncodableReturnsNull() {
+        Document nested = new Document("ts", 1L).append("receivedAt", 1L)
+                .append("payload", new Document("extra", new Document("a", 1)));
+        assertNull(ColumnarCodec.encode(List.of(nested)));
+
+        List<Document> mixed = List.of(
+                new Document("ts", 1L).append("receivedAt", 1L).append("payload", new Document("v", 1.0)),
+                new Document("ts", 2L).append("receivedAt", 2L).append("payload", new Document("v", "x")));
+        assertNull(ColumnarCodec.encode(mixed));
+    }
+
+    @Test
+    void beyondSixteenBitLimitsReturnsNull() {
+        String big = "x".repeat(0x10000);
+        assertNull(ColumnarCodec.encode(List.of(
+                new Document("ts", 1L).append("receivedAt", 1L).append("payload", new Document("unit", big)))));
+        assertNull(ColumnarCodec.encode(List.of(
+                new Document("ts", 1L).append("receivedAt", 1L).append("payload", new Document(big, 1.0)))));
+
+        Document wide = new Document();
+        for (int i = 0; i <= 0xFFFF; i++) wide.append("k" + i, i);
+        assertNull(ColumnarCodec.encode(List.of(new Document("ts", 1L).append("receivedAt", 1L).append("payload", wide))));
+
+        // Justo en el límite todavía se codifica
+        String edge = "é".repeat(0xFFFF / 2) + "x";
+        List<Document> ok = List.of(new Document("ts", 1L).append("receivedAt", 1L).append("payload", new Document("unit", edge)));
+        assertEquals(ok, ColumnarCodec.decode(ColumnarCodec.encode(ok)));
+    }
+
+    @Test
+    void encodesSharedVector() throws IOException {
+        byte[] expected = HexFormat.of().parseHex(Files.readString(VECTOR).strip());
+        assertArrayEquals(expected, ColumnarCodec.encode(vectorEntries()));
+    }
+}
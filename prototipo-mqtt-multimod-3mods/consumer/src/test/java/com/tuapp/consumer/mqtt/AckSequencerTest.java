@@ -0,0 +1,107 @@
+package com.tuapp.consumer.mqtt;
+
+import com.tuapp.consumer.pipeline.IngestStage.RedeliverableAck;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AckSequencerTest {
+
+    private final List<Integer> sent = new ArrayList<>();
+    private final AtomicInteger redeliveries = new AtomicInteger();
+
+    private AckSequencer sequencer(int maxInflight) {
+        return new AckSequencer(maxInflight, (id, qos) -> sent.add(id), redeliveries::incrementAndGet);
+    }
+
+    @Test
+    void acksGoOutInArrivalOrder() throws Exception {
+        AckSequencer acks = sequencer(8);
+        RedeliverableAck a = acks.open(1, 1);
+        RedeliverableAck b = acks.open(2, 1);
+        RedeliverableAck c = acks.open(3, 1);
+
+        c.run();
+        b.run();
+        assertEquals(List.of(), sent);
+        a.run();
+        assertEquals(List.of(1, 2, 3), sent);
+        assertEquals(0, acks.inflight());
+    }
+
+    @Test
+    void ackIsIdempotentAndQos0IsNotSent() throws Exception {
+        AckSequencer acks = sequencer(8);
+        RedeliverableAck a = acks.open(1, 0);
+        RedeliverableAck b = acks.open(2, 1);
+        a.run();
+        a.run();
+        b.run();
+        assertEquals(List.of(2), sent);
+    }
+
+    @Test
+    void redeliverLeavesAHoleUntilReset() throws Exception {
+        AckSequencer acks = sequencer(8);
+        RedeliverableAck a = acks.open(1, 1);
+        RedeliverableAck b = acks.open(2, 1);
+
+        a.redeliver();
+        b.run();
+        assertEquals(List.of(), sent);
+        assertEquals(1, redeliveries.get());
+        assertEquals(2, acks.inflight());
+
+        acks.reset();
+        assertEquals(0, acks.inflight());
+        a.run(); // de la conexión anterior: se ignora
+        RedeliverableAck again = acks.open(1, 1);
+        again.run();
+        assertEquals(List.of(1), sent);
+    }
+
+    @Test
+    void fullWindowBlocksUntilAnAck() throws Exception {
+        AckSequencer acks = sequencer(1);
+        RedeliverableAck a = acks.open(1, 1);
+        CompletableFuture<RedeliverableAck> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return acks.open(2, 1);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS));
+        a.run();
+        assertNotNull(second.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void openWaitingAcrossResetReturnsNull() throws Exception {
+        AckSequencer acks = sequencer(1);
+        acks.open(1, 1);
+        CompletableFuture<RedeliverableAck> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return acks.open(2, 1);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        acks.reset();
+        assertNull(waiting.get(2, TimeUnit.SECONDS));
+        assertEquals(0, acks.inflight());
+    }
+}
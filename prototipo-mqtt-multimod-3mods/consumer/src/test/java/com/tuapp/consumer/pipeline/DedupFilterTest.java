@@ -0,0 +1,86 @@
+package com.tuapp.consumer.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DedupFilterTest {
+
+    private static long key(long ts, String payload) {
+        return DedupFilter.key(ts, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Chequea y, si no es duplicado, registra (como un mensaje que se confirmó enseguida). */
+    private static boolean seen(DedupFilter dedup, String topic, long ts, String payload) {
+        long k = key(ts, payload);
+        if (dedup.isDuplicate(topic, k)) return true;
+        dedup.record(topic, k);
+        return false;
+    }
+
+    @Test
+    void redeliveryIsDuplicate() {
+        DedupFilter dedup = new DedupFilter(16, 10);
+        assertFalse(seen(dedup, "sensors/a/temperature", 1000, "{\"temperature\":21}"));
+        assertTrue(seen(dedup, "sensors/a/temperature", 1000, "{\"temperature\":21}"));
+        assertEquals(0.5, dedup.hitRatio());
+    }
+
+    @Test
+    void differentTsPayloadOrTopicIsNotDuplicate() {
+        DedupFilter dedup = new DedupFilter(16, 10);
+        assertFalse(seen(dedup, "sensors/a/temperature", 1000, "x"));
+        assertFalse(seen(dedup, "sensors/a/temperature", 1001, "x"));
+        assertFalse(seen(dedup, "sensors/a/temperature", 1000, "y"));
+        assertFalse(seen(dedup, "sensors/b/temperature", 1000, "x"));
+    }
+
+    @Test
+    void onlyAckedKeysCount() {
+        DedupFilter dedup = new DedupFilter(16, 10);
+        long k = key(1000, "x");
+        AtomicInteger acks = new AtomicInteger();
+        AtomicInteger redeliveries = new AtomicInteger();
+        IngestStage.RedeliverableAck inner = new IngestStage.RedeliverableAck() {
+            @Override public void run() { acks.incrementAndGet(); }
+            @Override public void redeliver() { redeliveries.incrementAndGet(); }
+        };
+
+        IngestStage.redeliver(dedup.recordOnAck("t", k, inner));
+        assertEquals(1, redeliveries.get());
+        assertFalse(dedup.isDuplicate("t", k)); // la reentrega se procesa
+
+        dedup.recordOnAck("t", k, inner).run();
+        assertEquals(1, acks.get());
+        assertTrue(dedup.isDuplicate("t", k));
+    }
+
+    @Test
+    void windowKeepsExactlyTheLastKeys() {
+        int window = 100;
+        DedupFilter dedup = new DedupFilter(window, 10);
+        for (int i = 0; i < 5_000; i++) assertFalse(seen(dedup, "t", i, "p"));
+        // Los últimos 'window' siguen en la ventana (un duplicado no se vuelve a registrar)
+        for (int i = 5_000 - window; i < 5_000; i++) assertTrue(seen(dedup, "t", i, "p"), "ts " + i);
+        // El anterior ya salió por la expulsión del anillo (y el borrado de la tabla no dejó huecos)
+        assertFalse(seen(dedup, "t", 5_000 - window - 1, "p"));
+    }
+
+    @Test
+    void tooManyTopicsEvictsLeastRecentlyUsed() {
+        DedupFilter dedup = new DedupFilter(16, 2);
+        assertFalse(seen(dedup, "t1", 1, "p"));
+        assertFalse(seen(dedup, "t2", 1, "p"));
+        assertTrue(seen(dedup, "t1", 1, "p"));  // t1 pasa a ser el más reciente
+        assertFalse(seen(dedup, "t3", 1, "p")); // supera maxTopics: sale t2 (LRU)
+        assertEquals(2, dedup.topics());
+        assertTrue(seen(dedup, "t1", 1, "p"));  // la ventana activa se conserva
+        assertTrue(seen(dedup, "t3", 1, "p"));
+        assertFalse(seen(dedup, "t2", 1, "p")); // t2 vuelve con ventana nueva (y expulsa a t1)
+    }
+}
@@ -0,0 +1,105 @@
+package com.tuapp.consumer.pipeline;
+
+import com.tuapp.consumer.db.TopicAppender;
+import com.tuapp.consumer.model.SensorReading;
+import com.tuapp.consumer.service.DecisionService;
+import com.tuapp.consumer.service.RuleSet;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MessageProcessorTest {
+
+    private static final String TOPIC = "sensors/living/temperature";
+    private static final byte[] PAYLOAD = "{\"ts\":1000,\"temperature\":21.5}".getBytes(StandardCharsets.UTF_8);
+
+    /** Destino que falla las primeras 'failures' escrituras (como Mongo caído en modo "single"). */
+    private static final class FlakyStore implements TopicAppender {
+        int failures;
+        final List<Long> stored = new ArrayList<>();
+        final List<Runnable> pending = new ArrayList<>();
+        boolean async;
+
+        @Override
+        public void appendByTopic(SensorReading reading) {
+            if (failures > 0) {
+                failures--;
+                throw new IllegalStateException("mongo caído");
+            }
+            stored.add(reading.ts);
+        }
+
+        @Override
+        public void appendByTopic(SensorReading reading, Runnable onDurable) {
+            appendByTopic(reading);
+            if (async) pending.add(onDurable); else onDurable.run();
+        }
+    }
+
+    /** Ack de un mensaje MQTT: cuenta confirmaciones y pedidos de reentrega. */
+    private static final class Ack implements IngestStage.RedeliverableAck {
+        int acked;
+        int redelivered;
+
+        @Override public void run() { acked++; }
+        @Override public void redeliver() { redelivered++; }
+    }
+
+    private static MessageProcessor processor(TopicAppender store) {
+        DecisionService decision = new DecisionService(21, RuleSet.parse(RuleSet.DEFAULT, 21), (t, p) -> { },
+                "sensors/outdoor/temperature", "set", 30_000, 50);
+        return new MessageProcessor(decision, store, new DedupFilter(16, 10), null, null, null, null, null, -1);
+    }
+
+    @Test
+    void failedWriteIsRedeliveredAndThenStored() {
+        FlakyStore store = new FlakyStore();
+        store.failures = 1;
+        MessageProcessor processor = processor(store);
+
+        Ack first = new Ack();
+        processor.submit(TOPIC, PAYLOAD, 2000, first);
+        assertEquals(0, first.acked);
+        assertEquals(1, first.redelivered);
+
+        // La reentrega del broker no es un duplicado: se guarda y se confirma
+        Ack second = new Ack();
+        processor.submit(TOPIC, PAYLOAD, 2100, second);
+        assertEquals(1, second.acked);
+        assertEquals(List.of(1000L), store.stored);
+
+        // Una vez confirmada, otra copia sí es duplicado
+        Ack third = new Ack();
+        processor.submit(TOPIC, PAYLOAD, 2200, third);
+        assertEquals(1, third.acked);
+        assertEquals(List.of(1000L), store.stored);
+    }
+
+    @Test
+    void lostBatchIsRedeliveredAndThenStored() {
+        FlakyStore store = new FlakyStore();
+        store.async = true;
+        MessageProcessor processor = processor(store);
+
+        // Encolado en el lote, pero el bulkWrite falla después: el writer pide la reentrega
+        Ack first = new Ack();
+        processor.submit(TOPIC, PAYLOAD, 2000, first);
+        IngestStage.redeliver(store.pending.remove(0));
+        assertEquals(1, first.redelivered);
+
+        Ack second = new Ack();
+        processor.submit(TOPIC, PAYLOAD, 2100, second);
+        assertEquals(2, store.stored.size());
+        store.pending.remove(0).run();
+        assertEquals(1, second.acked);
+
+        Ack third = new Ack();
+        processor.submit(TOPIC, PAYLOAD, 2200, third);
+        assertEquals(1, third.acked);
+        assertEquals(2, store.stored.size());
+    }
+}
@@ -0,0 +1,76 @@
+package com.tuapp.consumer.presence;
+
+import com.tuapp.consumer.model.SensorReading;
+import com.tuapp.consumer.presence.PresenceTracker.PresenceEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PresenceTrackerTest {
+
+    private static final long TICK_MS = 10;
+    private static final long TIMEOUT_MS = 100;
+
+    private final BlockingQueue<PresenceEvent> events = new LinkedBlockingQueue<>();
+
+    private PresenceTracker tracker(boolean byDevice) {
+        return new PresenceTracker(byDevice, 64, TICK_MS, TIMEOUT_MS, TIMEOUT_MS, 3.0, events::add);
+    }
+
+    private static SensorReading reading(String topic, String deviceId) {
+        SensorReading r = new SensorReading();
+        r.topic = topic;
+        r.deviceId = deviceId;
+        r.receivedAt = System.currentTimeMillis();
+        return r;
+    }
+
+    private PresenceEvent next() throws InterruptedException {
+        PresenceEvent e = events.poll(2, TimeUnit.SECONDS);
+        assertNotNull(e, "no llegó el evento");
+        return e;
+    }
+
+    @Test
+    void firstSeenThenTimeoutThenBackOnline() throws Exception {
+        try (PresenceTracker presence = tracker(false)) {
+            presence.seen(reading("sensors/a/temperature", null));
+            PresenceEvent online = next();
+            assertTrue(online.online());
+            assertEquals("first-seen", online.reason());
+
+            PresenceEvent offline = next();
+            assertFalse(offline.online());
+            assertEquals("timeout", offline.reason());
+            assertEquals("sensors/a/temperature", offline.key());
+
+            presence.seen(reading("sensors/a/temperature", null));
+            PresenceEvent back = next();
+            assertTrue(back.online());
+            assertEquals("reporting", back.reason());
+        }
+    }
+
+    @Test
+    void reportingDeviceStaysOnline() throws Exception {
+        try (PresenceTracker presence = tracker(true)) {
+            long until = System.currentTimeMillis() + 5 * TIMEOUT_MS;
+            while (System.currentTimeMillis() < until) {
+                presence.seen(reading("sensors/a/temperature", "dev-1"));
+                Thread.sleep(TIMEOUT_MS / 5);
+            }
+            PresenceEvent first = next();
+            assertEquals("dev-1", first.key());
+            assertTrue(first.online());
+            assertNull(events.poll(), "no debería vencer mientras reporta");
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.tuapp.consumer.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RuleSetTest {
+
+    @Test
+    void defaultRules() {
+        RuleSet rules = RuleSet.parse(RuleSet.DEFAULT, 22);
+        assertEquals(3, rules.size());
+        assertEquals("ON", rules.evaluate(20, 25).action());
+        assertEquals("OFF", rules.evaluate(22, 25).action());
+        assertEquals("OFF", rules.evaluate(20, 28).action());
+        // Sin dato interior solo puede cumplirse la regla de outdoor
+        assertNull(rules.evaluate(Double.NaN, 25));
+    }
+
+    @Test
+    void exponentSignIsNotAnOffset() {
+        RuleSet rules = RuleSet.parse("ON: indoor < 1e-3", 0);
+        assertEquals("ON", rules.evaluate(0.0005, 0).action());
+        assertNull(rules.evaluate(0.002, 0));
+
+        rules = RuleSet.parse("ON: indoor >= 2.5E+1", 0);
+        assertEquals("ON", rules.evaluate(25, 0).action());
+        assertNull(rules.evaluate(24.9, 0));
+    }
+
+    @Test
+    void offsetWithExponent() {
+        RuleSet rules = RuleSet.parse("ON: indoor < setpoint - 1e-3; OFF: outdoor > -5 + 1e1", 20);
+        assertEquals("ON", rules.evaluate(19.9985, Double.NaN).action());
+        assertNull(rules.evaluate(19.9995, Double.NaN));
+        assertEquals("OFF", rules.evaluate(Double.NaN, 5.5).action());
+        assertNull(rules.evaluate(Double.NaN, 5));
+    }
+
+    @Test
+    void invalidOperands() {
+        assertThrows(IllegalArgumentException.class, () -> RuleSet.parse("ON: humidity < 50", 20));
+        assertThrows(IllegalArgumentException.class, () -> RuleSet.parse("ON: indoor < 1e", 20));
+        assertThrows(IllegalArgumentException.class, () -> RuleSet.parse("ON: indoor < setpoint + 1 + 2", 20));
+        assertThrows(IllegalArgumentException.class, () -> RuleSet.parse("ON: indoor", 20));
+    }
+}
@@ -0,0 +1,123 @@
+package com.tuapp.simulator.load;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Carga de lazo cerrado contra la API: LOAD_CONCURRENCY clientes (hilos virtuales) piden en ronda LOAD_PATHS
+ * durante LOAD_DURATION_S y al final se imprime throughput, errores y latencias p50/p90/p99/max.
+ * Sirve para comparar API_VIRTUAL_THREADS=true/false con la misma carga. Es una herramienta de medición, no parte
+ * del simulador: vive en src/test (no entra al jar) y solo usa el JDK.
+ *   mvn -q -pl simulator test-compile
+ *   java -cp simulator/target/test-classes com.tuapp.simulator.load.ApiLoadGenerator
+ */
+public class ApiLoadGenerator {
+
+    private static String env(String k, String def) {
+        String v = System.getenv(k);
+        return (v == null || v.isBlank()) ? def : v;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String BASE_URL    = env("API_URL", "http://localhost:8080");
+        final String USER        = env("API_USER", "IoTEste");
+        final String PASS        = env("API_PASS", "1234");
+        final int CONCURRENCY    = Integer.parseInt(env("LOAD_CONCURRENCY", "1000"));
+        final long DURATION_S    = Long.parseLong(env("LOAD_DURATION_S", "60"));
+        final long WARMUP_S      = Long.parseLong(env("LOAD_WARMUP_S", "10"));
+        final long TIMEOUT_MS    = Long.parseLong(env("LOAD_TIMEOUT_MS", "30000"));
+        final List<String> PATHS = Arrays.stream(env("LOAD_PATHS",
+                        "/api/rooms/room1/sensors/1/temperature/latest,"
+                        + "/api/rooms/room1/sensors/1/temperature/sequence?fechaInicio=2025-01-01T00:00:00Z&fechaFin=2030-01-01T00:00:00Z&maxPoints=500")
+                        .split(","))
+                .map(String::trim).filter(p -> !p.isEmpty()).toList();
+
+        String auth = "Basic " + Base64.getEncoder().encodeToString((USER + ":" + PASS).getBytes(StandardCharsets.UTF_8));
+        List<HttpRequest> requests = PATHS.stream()
+                .map(p -> HttpRequest.newBuilder(URI.create(BASE_URL + p))
+                        .header("Authorization", auth)
+                        .timeout(Duration.ofMillis(TIMEOUT_MS))
+                        .GET().build())
+                .toList();
+
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        System.out.printf("Carga: %s concurrency=%d warmup=%ds duration=%ds paths=%s%n",
+                BASE_URL, CONCURRENCY, WARMUP_S, DURATION_S, PATHS);
+
+        long warmupEnd = System.nanoTime() + Duration.ofSeconds(WARMUP_S).toNanos();
+        long end = warmupEnd + Duration.ofSeconds(DURATION_S).toNanos();
+        AtomicLong ok = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        // Latencias en µs por cliente (sin compartir entre hilos); se juntan al final
+        long[][] samples = new long[CONCURRENCY][];
+        int[] counts = new int[CONCURRENCY];
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < CONCURRENCY; c++) {
+                final int id = c;
+                clients.submit(() -> {
+                    long[] lat = new long[1024];
+                    int n = 0;
+                    int i = id;
+                    long now;
+                    while ((now = System.nanoTime()) < end) {
+                        HttpRequest req = requests.get(i++ % requests.size());
+                        boolean success;
+                        try {
+                            HttpResponse<Void> res = http.send(req, HttpResponse.BodyHandlers.discarding());
+                            success = res.statusCode() < 400;
+                        } catch (Exception e) {
+                            success = false;
+                        }
+                        long done = System.nanoTime();
+                        if (now < warmupEnd) continue;
+                        if (!success) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        ok.incrementAndGet();
+                        if (n == lat.length) lat = Arrays.copyOf(lat, n * 2);
+                        lat[n++] = (done - now) / 1000;
+                    }
+                    samples[id] = lat;
+                    counts[id] = n;
+                });
+            }
+        }
+
+        int total = 0;
+        for (int n : counts) total += n;
+        long[] all = new long[total];
+        int pos = 0;
+        for (int c = 0; c < CONCURRENCY; c++) {
+            System.arraycopy(samples[c], 0, all, pos, counts[c]);
+            pos += counts[c];
+        }
+        Arrays.sort(all);
+
+        System.out.printf("ok=%d errors=%d throughput=%.1f req/s p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms%n",
+                ok.get(), errors.get(), ok.get() / (double) DURATION_S,
+                percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99),
+                all.length == 0 ? 0.0 : all[all.length - 1] / 1000.0);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0.0;
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))] / 1000.0;
+    }
+}